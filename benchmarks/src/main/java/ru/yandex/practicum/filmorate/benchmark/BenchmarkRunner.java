@@ -0,0 +1,28 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Те же ключи, что у org.openjdk.jmh.Main, но по умолчанию результаты пишутся в jmh-result.json,
+// чтобы прогоны разных релизов можно было сравнивать.
+public class BenchmarkRunner {
+    private static final String DEFAULT_RESULT = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp() || commandLine.shouldList()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON).result(commandLine.getResult().orElse(DEFAULT_RESULT));
+        }
+
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,182 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.FilmorateApplication;
+import ru.yandex.practicum.filmorate.index.FriendGraph;
+import ru.yandex.practicum.filmorate.index.PopularFilmsIndex;
+import ru.yandex.practicum.filmorate.index.SimilarFilmsIndex;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.LikeEvent;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.service.UserService;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.UserStorage;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Поднимает приложение на отдельной H2 в памяти и заполняет его один раз на набор параметров.
+@State(Scope.Benchmark)
+public class Dataset {
+    static final int USERS = 10_000;
+    static final int FILMS = 10_000;
+    private static final int CHUNK = 10_000;
+    private static final long SEED = 42;
+
+    @Param({"db", "memory"})
+    public String storage;
+
+    @Param({"1000", "100000", "1000000"})
+    public int likes;
+
+    @Param({"10", "100"})
+    public int friendDegree;
+
+    ConfigurableApplicationContext context;
+    long[] userIds;
+    long[] filmIds;
+    long likerId;
+
+    // Настройки передаются аргументами, а не properties(): те лишь значения по умолчанию, и application.properties
+    // перекрывал бы их файловой базой. JPA приложение не использует, а в shaded jar Hibernate не находит
+    // корень persistence unit.
+    @Setup(Level.Trial)
+    public void load() {
+        context = new SpringApplicationBuilder(FilmorateApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(
+                        "--spring.datasource.url=jdbc:h2:mem:bench-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1",
+                        "--filmorate.storage.mode=" + storage,
+                        "--logging.level.ru.yandex.practicum.filmorate=WARN",
+                        "--spring.autoconfigure.exclude="
+                                + "org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration");
+
+        loadUsers();
+        loadFilms();
+        loadLikes();
+        loadFriends();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        context.close();
+    }
+
+    <T> T bean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    <T> T bean(String name, Class<T> type) {
+        return context.getBean(name, type);
+    }
+
+    long randomUserId() {
+        return userIds[ThreadLocalRandom.current().nextInt(userIds.length)];
+    }
+
+    long randomFilmId() {
+        return filmIds[ThreadLocalRandom.current().nextInt(filmIds.length)];
+    }
+
+    private void loadUsers() {
+        UserService userService = bean(UserService.class);
+        List<User> users = new ArrayList<>(USERS);
+        for (int from = 0; from < USERS; from += CHUNK) {
+            users.addAll(userService.addAll(IntStream.range(from, Math.min(from + CHUNK, USERS))
+                    .mapToObj(i -> newUser("user" + i))
+                    .collect(Collectors.toList())).getCreated());
+        }
+        userIds = users.stream().mapToLong(User::getId).toArray();
+
+        // Пользователь без лайков: бенчмарк лайка ставит и снимает его, не меняя набор данных.
+        likerId = userService.add(newUser("liker")).getId();
+    }
+
+    private void loadFilms() {
+        FilmService filmService = bean(FilmService.class);
+        List<Film> films = new ArrayList<>(FILMS);
+        for (int from = 0; from < FILMS; from += CHUNK) {
+            films.addAll(filmService.addAll(IntStream.range(from, Math.min(from + CHUNK, FILMS))
+                    .mapToObj(i -> new Film(
+                            null, "Film " + i, "Описание", LocalDate.of(2000, 1, 1), 100, null, new Mpa(1L, null), null))
+                    .collect(Collectors.toList())).getCreated());
+        }
+        filmIds = films.stream().mapToLong(Film::getId).toArray();
+    }
+
+    // Популярность фильмов убывает степенным образом: первые фильмы собирают большую часть лайков.
+    private void loadLikes() {
+        FilmStorage filmStorage = bean("filmStorage", FilmStorage.class);
+        Random random = new Random(SEED);
+        Set<Long> pairs = new HashSet<>();
+        List<LikeEvent> chunk = new ArrayList<>(CHUNK);
+
+        while (pairs.size() < likes) {
+            int user = random.nextInt(userIds.length);
+            int film = (int) (filmIds.length * Math.pow(random.nextDouble(), 3));
+            if (!pairs.add((long) user * filmIds.length + film)) {
+                continue;
+            }
+
+            chunk.add(new LikeEvent(filmIds[film], userIds[user], LikeEvent.Op.LIKE));
+            if (chunk.size() == CHUNK) {
+                filmStorage.applyLikes(chunk);
+                chunk.clear();
+            }
+        }
+        filmStorage.applyLikes(chunk);
+
+        bean(PopularFilmsIndex.class).rebuild();
+        bean(SimilarFilmsIndex.class).rebuild();
+    }
+
+    private void loadFriends() {
+        List<long[]> edges = new ArrayList<>(userIds.length * friendDegree);
+        for (int i = 0; i < userIds.length; i++) {
+            for (int k = 0; k < friendDegree; k++) {
+                int friend = (i + 1 + k * 7919) % userIds.length;
+                if (friend != i) {
+                    edges.add(new long[]{userIds[i], userIds[friend]});
+                }
+            }
+        }
+
+        if ("db".equals(storage)) {
+            bean(JdbcTemplate.class).batchUpdate(
+                    "insert into friends(user_id, friend_id, confirm) values(?, ?, true)",
+                    edges,
+                    CHUNK,
+                    (ps, edge) -> {
+                        ps.setLong(1, edge[0]);
+                        ps.setLong(2, edge[1]);
+                    });
+        } else {
+            UserStorage userStorage = bean("userStorage", UserStorage.class);
+            edges.forEach(edge -> userStorage.addFriendEdge(edge[0], edge[1]));
+        }
+
+        bean(FriendGraph.class).rebuild();
+    }
+
+    private static User newUser(String login) {
+        return new User(null, login + "@bench.ru", login, null, LocalDate.of(1990, 1, 1), null);
+    }
+}
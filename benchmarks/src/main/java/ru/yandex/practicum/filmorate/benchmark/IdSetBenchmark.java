@@ -0,0 +1,100 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.yandex.practicum.filmorate.model.IdSet;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Список лайков одного фильма в IdSet против HashSet<Long>. Оба множества создаются сразу нужной ёмкости,
+// поэтому при запуске с -prof gc метрика gc.alloc.rate.norm равна размеру множества в куче.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class IdSetBenchmark {
+    @Param({"1000000"})
+    public int likes;
+
+    private long[] ids;
+    private long[] shuffled;
+    private IdSet idSet;
+    private Set<Long> hashSet;
+    private Random random;
+
+    // Возрастающие id с пропусками, как у пользователей после удалений; вне кэша Long.valueOf.
+    @Setup(Level.Trial)
+    public void setUp() {
+        random = new Random(42);
+        ids = new long[likes];
+        long id = 1_000;
+        for (int i = 0; i < likes; i++) {
+            id += 1 + random.nextInt(3);
+            ids[i] = id;
+        }
+        shuffled = ids.clone();
+        for (int i = shuffled.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            long swap = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = swap;
+        }
+        idSet = idSet();
+        hashSet = hashSet();
+    }
+
+    @Benchmark
+    public IdSet idSet() {
+        IdSet set = new IdSet(ids.length);
+        for (long id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+
+    // Вставка в случайном порядке: каждая сдвигает не больше одного блока, а не весь массив.
+    @Benchmark
+    public IdSet idSetShuffled() {
+        IdSet set = new IdSet(shuffled.length);
+        for (long id : shuffled) {
+            set.add(id);
+        }
+        return set;
+    }
+
+    @Benchmark
+    public Set<Long> hashSet() {
+        Set<Long> set = new HashSet<>((int) (ids.length / 0.75f) + 1);
+        for (long id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean idSetContains() {
+        return idSet.contains(ids[random.nextInt(ids.length)]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean hashSetContains() {
+        return hashSet.contains(ids[random.nextInt(ids.length)]);
+    }
+}
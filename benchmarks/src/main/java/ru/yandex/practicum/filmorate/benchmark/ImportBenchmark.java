@@ -0,0 +1,102 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.util.JdbcRoundTrips;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Импорт фильмов с жанром по одному против пакетного: время на весь набор и число обращений к базе.
+// Созданные фильмы удаляются после каждой итерации, чтобы набор данных не рос.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ImportBenchmark {
+    @Param({"100", "1000"})
+    public int films;
+
+    private FilmService filmService;
+    private FilmStorage filmStorage;
+    private final List<Long> created = new ArrayList<>();
+    private long sequence;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class RoundTrips {
+        public long roundTrips;
+        public long imports;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp(Dataset dataset) {
+        filmService = dataset.bean(FilmService.class);
+        filmStorage = dataset.bean("filmStorage", FilmStorage.class);
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeCreated() {
+        created.forEach(filmStorage::remove);
+        created.clear();
+    }
+
+    @Benchmark
+    public void singleInserts(RoundTrips counters) {
+        List<Film> batch = newFilms();
+        long roundTrips = JdbcRoundTrips.get();
+        batch.forEach(film -> created.add(filmService.add(film).getId()));
+        count(counters, roundTrips);
+    }
+
+    @Benchmark
+    public void batchInsert(RoundTrips counters) {
+        List<Film> batch = newFilms();
+        long roundTrips = JdbcRoundTrips.get();
+        filmService.addAll(batch).getCreated().forEach(film -> created.add(film.getId()));
+        count(counters, roundTrips);
+    }
+
+    private List<Film> newFilms() {
+        return IntStream.range(0, films)
+                .mapToObj(i -> new Film(
+                        null,
+                        "Import " + sequence++,
+                        "Описание",
+                        LocalDate.of(2000, 1, 1),
+                        100,
+                        null,
+                        new Mpa(1L, null),
+                        new LinkedHashSet<>(List.of(new Genre(1L, null)))))
+                .collect(Collectors.toList());
+    }
+
+    private static void count(RoundTrips counters, long roundTrips) {
+        counters.roundTrips += JdbcRoundTrips.get() - roundTrips;
+        counters.imports++;
+    }
+}
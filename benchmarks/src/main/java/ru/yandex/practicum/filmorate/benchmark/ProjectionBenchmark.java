@@ -0,0 +1,133 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmField;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserField;
+import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.service.UserService;
+import ru.yandex.practicum.filmorate.util.Projections;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Полная выдача против списочной проекции: время ответа и его размер в байтах.
+// Размер попадает в результаты как счётчики bytes и responses, их отношение — байт на ответ.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ProjectionBenchmark {
+    private static final int PAGE_SIZE = 1000;
+
+    @Param({"full", "list"})
+    public String projection;
+
+    private FilmService filmService;
+    private UserService userService;
+    private Set<FilmField> filmFields;
+    private Set<UserField> userFields;
+    private ObjectWriter filmWriter;
+    private ObjectWriter userWriter;
+    private ObjectMapper objectMapper;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ResponseSize {
+        public long bytes;
+        public long responses;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp(Dataset dataset) {
+        filmService = dataset.bean(FilmService.class);
+        userService = dataset.bean(UserService.class);
+        objectMapper = dataset.bean(ObjectMapper.class);
+
+        boolean full = "full".equals(projection);
+        filmFields = Projections.parse(FilmField.class, full ? null : "id,name,mpa");
+        userFields = Projections.parse(UserField.class, full ? null : "id,login,name");
+        filmWriter = Projections.writer(objectMapper, Film.class, filmFields);
+        userWriter = Projections.writer(objectMapper, User.class, userFields);
+    }
+
+    @Benchmark
+    public long streamFilms(ResponseSize size) throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        try (SequenceWriter array = filmWriter.writeValuesAsArray(out)) {
+            filmService.forEachFilm(filmFields, film -> write(array, film));
+        }
+        return count(size, out);
+    }
+
+    @Benchmark
+    public long streamUsers(ResponseSize size) throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        try (SequenceWriter array = userWriter.writeValuesAsArray(out)) {
+            userService.forEachUser(userFields, user -> write(array, user));
+        }
+        return count(size, out);
+    }
+
+    @Benchmark
+    public long filmPage(Dataset dataset, ResponseSize size) throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        MappingJacksonValue page = Projections.wrap(
+                filmService.findPage(dataset.randomFilmId() - 1, PAGE_SIZE, filmFields), filmFields);
+        ObjectWriter writer = page.getFilters() == null
+                ? objectMapper.writer()
+                : objectMapper.writer(page.getFilters());
+        writer.writeValue(out, page.getValue());
+        return count(size, out);
+    }
+
+    private static void write(SequenceWriter array, Object value) {
+        try {
+            array.write(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long count(ResponseSize size, CountingOutputStream out) {
+        size.bytes += out.count;
+        size.responses++;
+        return out.count;
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
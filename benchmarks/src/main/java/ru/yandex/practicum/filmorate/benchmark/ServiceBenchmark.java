@@ -0,0 +1,59 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.service.UserService;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ServiceBenchmark {
+    private FilmService filmService;
+    private UserService userService;
+
+    @Setup(Level.Trial)
+    public void setUp(Dataset dataset) {
+        filmService = dataset.bean(FilmService.class);
+        userService = dataset.bean(UserService.class);
+    }
+
+    @Benchmark
+    public List<Film> getPopular() {
+        return filmService.getPopular("10");
+    }
+
+    @Benchmark
+    public List<User> getFriends(Dataset dataset) {
+        return userService.getFriends(dataset.randomUserId());
+    }
+
+    @Benchmark
+    public List<User> getMutualFriends(Dataset dataset) {
+        return userService.getMutualFriends(dataset.randomUserId(), dataset.randomUserId());
+    }
+
+    @Benchmark
+    public void addAndRemoveLike(Dataset dataset) {
+        long filmId = dataset.randomFilmId();
+        filmService.addLike(filmId, dataset.likerId);
+        filmService.deleteLike(filmId, dataset.likerId);
+    }
+}
@@ -0,0 +1,52 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.aop.framework.AopProxyUtils;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Хранилище без кэша фильмов и без аспекта метрик: db — FilmDBStorage, memory — InMemoryFilmStorage.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class StorageBenchmark {
+    private FilmStorage filmStorage;
+
+    @Setup(Level.Trial)
+    public void setUp(Dataset dataset) {
+        String name = "db".equals(dataset.storage) ? "filmDBStorage" : "inMemoryFilmStorage";
+        filmStorage = unproxied(dataset.bean(name, FilmStorage.class));
+    }
+
+    // FilmDBStorage обёрнут аспектом метрик; меряем само хранилище, без таймеров и счётчиков вокруг вызова.
+    private static FilmStorage unproxied(FilmStorage storage) {
+        Object target = AopProxyUtils.getSingletonTarget(storage);
+        return target == null ? storage : (FilmStorage) target;
+    }
+
+    @Benchmark
+    public List<Film> findAll() {
+        return filmStorage.findAll();
+    }
+
+    @Benchmark
+    public Film findById(Dataset dataset) {
+        return filmStorage.findById(dataset.randomFilmId());
+    }
+}
@@ -0,0 +1,28 @@
+package ru.yandex.practicum.filmorate.config;
+
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.ProjectedField;
+import ru.yandex.practicum.filmorate.model.User;
+
+@Configuration
+public class JacksonConfiguration {
+
+    // Фильтр проекции навешивается mix-in только на маппер Spring, сами модели остаются без аннотаций
+    // и сериализуются любым ObjectMapper. Пока запрос не передал свой фильтр, поля пишутся все.
+    @Bean
+    public Jackson2ObjectMapperBuilderCustomizer projectionFilterCustomizer() {
+        return builder -> builder
+                .mixIn(Film.class, ProjectionFilter.class)
+                .mixIn(User.class, ProjectionFilter.class)
+                .filters(new SimpleFilterProvider().setFailOnUnknownId(false));
+    }
+
+    @JsonFilter(ProjectedField.FILTER)
+    private interface ProjectionFilter {
+    }
+}
@@ -0,0 +1,25 @@
+package ru.yandex.practicum.filmorate.config;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.yandex.practicum.filmorate.util.RoundTripCountingDataSource;
+
+import javax.sql.DataSource;
+
+@Configuration
+public class JdbcConfiguration {
+
+    @Bean
+    public static BeanPostProcessor roundTripCountingPostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource && !(bean instanceof RoundTripCountingDataSource)) {
+                    return new RoundTripCountingDataSource((DataSource) bean);
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,54 @@
+package ru.yandex.practicum.filmorate.config;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.storage.CachingFilmStorage;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.UserStorage;
+import ru.yandex.practicum.filmorate.storage.WriteBehindFilmStorage;
+
+// Режим memory переносит в память только фильмы, пользователей, лайки и дружбу. Справочники жанров и MPA,
+// транзакции и DB-хранилища по-прежнему поднимаются на настроенной базе, поэтому без неё приложение не стартует.
+@Configuration
+public class StorageConfiguration {
+    private static final String IN_MEMORY_MODE = "memory";
+
+    private final boolean inMemory;
+
+    public StorageConfiguration(@Value("${filmorate.storage.mode:db}") String storageMode) {
+        this.inMemory = IN_MEMORY_MODE.equalsIgnoreCase(storageMode);
+    }
+
+    @Bean
+    public CachingFilmStorage filmCache(
+            @Qualifier("filmDBStorage") FilmStorage filmDBStorage,
+            @Qualifier("inMemoryFilmStorage") FilmStorage inMemoryFilmStorage,
+            @Value("${filmorate.film-cache.max-weight:1000000}") long maxWeight,
+            @Value("${filmorate.film-cache.max-entry-weight:100000}") long maxEntryWeight) {
+        return new CachingFilmStorage(inMemory ? inMemoryFilmStorage : filmDBStorage, maxWeight, maxEntryWeight);
+    }
+
+    @Bean
+    public FilmStorage filmStorage(
+            CachingFilmStorage filmCache,
+            @Qualifier("userStorage") UserStorage userStorage,
+            TransactionTemplate transactionTemplate,
+            @Value("${filmorate.likes.write-behind.enabled:false}") boolean writeBehind,
+            @Value("${filmorate.likes.write-behind.max-pending:100000}") int maxPending,
+            @Value("${filmorate.likes.write-behind.batch-size:1000}") int batchSize) {
+        if (!writeBehind) {
+            return filmCache;
+        }
+        return new WriteBehindFilmStorage(filmCache, userStorage, transactionTemplate, maxPending, batchSize);
+    }
+
+    @Bean
+    public UserStorage userStorage(
+            @Qualifier("userDBStorage") UserStorage userDBStorage,
+            @Qualifier("inMemoryUserStorage") UserStorage inMemoryUserStorage) {
+        return inMemory ? inMemoryUserStorage : userDBStorage;
+    }
+}
@@ -1,51 +1,166 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.yandex.practicum.filmorate.execution.RequestExecutor;
+import ru.yandex.practicum.filmorate.execution.RequestExecutor.Workload;
+import ru.yandex.practicum.filmorate.index.EntityVersions;
+import ru.yandex.practicum.filmorate.model.BatchResult;
+import ru.yandex.practicum.filmorate.model.CursorPage;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmField;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
+import ru.yandex.practicum.filmorate.model.LikeStreamResult;
 import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.service.LikeStreamService;
+import ru.yandex.practicum.filmorate.util.Projections;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Positive;
+import javax.validation.constraints.PositiveOrZero;
+import javax.validation.constraints.Size;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping(value = "/films")
 @RequiredArgsConstructor
+@Validated
 public class FilmController {
     private final FilmService filmService;
+    private final LikeStreamService likeStreamService;
+    private final RequestExecutor requestExecutor;
+    private final EntityVersions entityVersions;
+    private final ObjectMapper objectMapper;
 
     @PostMapping
-    public Film add(@Valid @RequestBody Film film) {
-        return filmService.add(film);
+    public CompletableFuture<Film> add(@Valid @RequestBody Film film) {
+        return requestExecutor.submit(Workload.WRITE, () -> filmService.add(film));
+    }
+
+    @PostMapping("/batch")
+    public CompletableFuture<BatchResult<Film>> addAll(
+            @RequestBody @NotEmpty @Size(max = 10000) List<@Valid Film> films) {
+        return requestExecutor.submit(Workload.WRITE, () -> filmService.addAll(films));
     }
 
     @PutMapping
-    public Film update(@Valid @RequestBody Film film) {
-        return filmService.update(film);
+    public CompletableFuture<Film> update(@Valid @RequestBody Film film) {
+        return requestExecutor.submit(Workload.WRITE, () -> filmService.update(film));
     }
 
     @GetMapping
-    public List<Film> findAll() {
-        return filmService.findAll();
+    public ResponseEntity<StreamingResponseBody> findAll(
+            @RequestParam(required = false) String fields,
+            WebRequest request) {
+        Set<FilmField> projection = Projections.parse(FilmField.class, fields);
+        if (request.checkNotModified(entityVersions.filmsTag())) {
+            return null;
+        }
+        return JsonArrayStream.of(
+                objectMapper,
+                requestExecutor,
+                Film.class,
+                projection,
+                consumer -> filmService.forEachFilm(projection, consumer));
+    }
+
+    @GetMapping(params = "limit")
+    public CompletableFuture<MappingJacksonValue> findPage(
+            @RequestParam @Positive @Max(1000) int limit,
+            @RequestParam(defaultValue = "0") @PositiveOrZero Long after,
+            @RequestParam(required = false) String fields,
+            WebRequest request) {
+        Set<FilmField> projection = Projections.parse(FilmField.class, fields);
+        CompletableFuture<CursorPage<Film>> page = requestExecutor.submitIfModified(
+                request,
+                entityVersions.filmsTag(),
+                Workload.READ,
+                () -> filmService.findPage(after, limit, projection));
+        return page == null ? null : page.thenApply(body -> Projections.wrap(body, projection));
     }
 
     @GetMapping("/{id}")
-    public Film findById(@PathVariable Long id) {
-        return filmService.findById(id);
+    public CompletableFuture<Film> findById(@PathVariable Long id, WebRequest request) {
+        return requestExecutor.submitIfModified(
+                request, entityVersions.filmTag(id), Workload.READ, () -> filmService.findById(id));
+    }
+
+    @GetMapping(value = "/{id}", params = "view=summary")
+    public CompletableFuture<FilmSummary> findSummaryById(
+            @PathVariable Long id,
+            @RequestParam(required = false) Long userId,
+            WebRequest request) {
+        return requestExecutor.submitIfModified(
+                request, entityVersions.filmTag(id), Workload.READ, () -> filmService.findSummaryById(id, userId));
+    }
+
+    @GetMapping("/{id}/likes")
+    public CompletableFuture<CursorPage<Long>> findLikes(
+            @PathVariable Long id,
+            @RequestParam(defaultValue = "100") @Positive @Max(1000) int limit,
+            @RequestParam(defaultValue = "0") @PositiveOrZero Long after,
+            WebRequest request) {
+        return requestExecutor.submitIfModified(
+                request, entityVersions.filmTag(id), Workload.READ, () -> filmService.findLikes(id, after, limit));
+    }
+
+    @DeleteMapping("/{id}")
+    public CompletableFuture<Void> remove(@PathVariable Long id) {
+        return requestExecutor.run(Workload.WRITE, () -> filmService.remove(id));
     }
 
     @PutMapping("/{id}/like/{userId}")
-    public void addLike(@PathVariable Long id, @PathVariable Long userId) {
-        filmService.addLike(id, userId);
+    public CompletableFuture<Void> addLike(@PathVariable Long id, @PathVariable Long userId) {
+        return requestExecutor.run(Workload.WRITE, () -> filmService.addLike(id, userId));
     }
 
     @DeleteMapping("/{id}/like/{userId}")
-    public void deleteLike(@PathVariable Long id, @PathVariable Long userId) {
-        filmService.deleteLike(id, userId);
+    public CompletableFuture<Void> deleteLike(@PathVariable Long id, @PathVariable Long userId) {
+        return requestExecutor.run(Workload.WRITE, () -> filmService.deleteLike(id, userId));
+    }
+
+    @PostMapping(value = "/likes/stream", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public LikeStreamResult ingestLikes(InputStream body) throws IOException {
+        return likeStreamService.ingest(body);
     }
 
     @GetMapping("/popular")
-    public List<Film> getPopular(@RequestParam(defaultValue = "10") String count) {
-        return filmService.getPopular(count);
+    public CompletableFuture<List<Film>> getPopular(
+            @RequestParam(defaultValue = "10") String count,
+            WebRequest request) {
+        return requestExecutor.submitIfModified(
+                request, entityVersions.filmsTag(), Workload.READ, () -> filmService.getPopular(count));
+    }
+
+    @GetMapping(value = "/popular", params = "view=summary")
+    public CompletableFuture<List<FilmSummary>> getPopularSummaries(
+            @RequestParam(defaultValue = "10") String count,
+            @RequestParam(required = false) Long userId,
+            WebRequest request) {
+        return requestExecutor.submitIfModified(
+                request,
+                entityVersions.filmsTag(),
+                Workload.READ,
+                () -> filmService.getPopularSummaries(count, userId));
+    }
+
+    @GetMapping("/{id}/similar")
+    public CompletableFuture<List<Film>> getSimilar(
+            @PathVariable Long id,
+            @RequestParam(defaultValue = "10") @Positive @Max(100) int limit) {
+        return requestExecutor.submit(Workload.READ, () -> filmService.getSimilar(id, limit));
     }
 }
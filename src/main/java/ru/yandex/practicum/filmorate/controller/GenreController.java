@@ -5,6 +5,8 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import ru.yandex.practicum.filmorate.index.EntityVersions;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.service.GenreService;
 
@@ -15,14 +17,21 @@ import java.util.List;
 @RequiredArgsConstructor
 public class GenreController {
     private final GenreService genreService;
+    private final EntityVersions entityVersions;
 
     @GetMapping
-    public List<Genre> findAll() {
+    public List<Genre> findAll(WebRequest request) {
+        if (request.checkNotModified(entityVersions.genresTag())) {
+            return null;
+        }
         return genreService.findAll();
     }
 
     @GetMapping("/{id}")
-    public Genre findById(@PathVariable Long id) {
+    public Genre findById(@PathVariable Long id, WebRequest request) {
+        if (request.checkNotModified(entityVersions.genresTag())) {
+            return null;
+        }
         return genreService.findById(id);
     }
 }
@@ -0,0 +1,67 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.yandex.practicum.filmorate.execution.RequestExecutor;
+import ru.yandex.practicum.filmorate.execution.RequestExecutor.Workload;
+import ru.yandex.practicum.filmorate.model.ProjectedField;
+import ru.yandex.practicum.filmorate.util.Projections;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Set;
+import java.util.function.Consumer;
+
+// Пишет JSON-массив в ответ по мере чтения из хранилища. Форма та же, что у List<T>, но в памяти
+// держится только текущий элемент, а первый элемент уходит клиенту сразу, не дожидаясь остальных.
+class JsonArrayStream {
+    private static final int FLUSH_EVERY = 500;
+
+    private JsonArrayStream() {
+    }
+
+    static <T, E extends Enum<E> & ProjectedField> ResponseEntity<StreamingResponseBody> of(
+            ObjectMapper objectMapper,
+            RequestExecutor requestExecutor,
+            Class<T> type,
+            Set<E> fields,
+            Consumer<Consumer<T>> source) {
+        ObjectWriter writer = Projections.writer(objectMapper, type, fields);
+        StreamingResponseBody body = out -> {
+            try {
+                requestExecutor.runAndWait(Workload.SCAN, () -> write(writer, out, source));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    private static <T> void write(ObjectWriter writer, OutputStream out, Consumer<Consumer<T>> source) {
+        // Поток ответа закрывает Spring после writeTo, генератор его не трогает.
+        try (JsonGenerator generator = writer.getFactory().createGenerator(out)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+             SequenceWriter array = writer.writeValuesAsArray(generator)) {
+            int[] written = {0};
+            source.accept(value -> {
+                try {
+                    array.write(value);
+                    if (written[0]++ % FLUSH_EVERY == 0) {
+                        array.flush();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -5,6 +5,8 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import ru.yandex.practicum.filmorate.index.EntityVersions;
 import ru.yandex.practicum.filmorate.model.Mpa;
 import ru.yandex.practicum.filmorate.service.MpaService;
 
@@ -15,14 +17,21 @@ import java.util.List;
 @RequiredArgsConstructor
 public class MpaController {
     private final MpaService mpaService;
+    private final EntityVersions entityVersions;
 
     @GetMapping
-    public List<Mpa> findAll() {
+    public List<Mpa> findAll(WebRequest request) {
+        if (request.checkNotModified(entityVersions.mpaTag())) {
+            return null;
+        }
         return mpaService.findAll();
     }
 
     @GetMapping("/{id}")
-    public Mpa findById(@PathVariable Long id) {
+    public Mpa findById(@PathVariable Long id, WebRequest request) {
+        if (request.checkNotModified(entityVersions.mpaTag())) {
+            return null;
+        }
         return mpaService.findById(id);
     }
 }
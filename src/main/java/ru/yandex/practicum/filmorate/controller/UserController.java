@@ -1,56 +1,130 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.yandex.practicum.filmorate.execution.RequestExecutor;
+import ru.yandex.practicum.filmorate.execution.RequestExecutor.Workload;
+import ru.yandex.practicum.filmorate.index.EntityVersions;
+import ru.yandex.practicum.filmorate.model.BatchResult;
+import ru.yandex.practicum.filmorate.model.CursorPage;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserField;
 import ru.yandex.practicum.filmorate.service.UserService;
+import ru.yandex.practicum.filmorate.util.Projections;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Positive;
+import javax.validation.constraints.PositiveOrZero;
+import javax.validation.constraints.Size;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping(value = "/users")
 @RequiredArgsConstructor
+@Validated
 public class UserController {
     private final UserService userService;
+    private final RequestExecutor requestExecutor;
+    private final EntityVersions entityVersions;
+    private final ObjectMapper objectMapper;
 
     @GetMapping
-    public List<User> findAll() {
-        return userService.findAll();
+    public ResponseEntity<StreamingResponseBody> findAll(
+            @RequestParam(required = false) String fields,
+            WebRequest request) {
+        Set<UserField> projection = Projections.parse(UserField.class, fields);
+        if (request.checkNotModified(entityVersions.usersTag())) {
+            return null;
+        }
+        return JsonArrayStream.of(
+                objectMapper,
+                requestExecutor,
+                User.class,
+                projection,
+                consumer -> userService.forEachUser(projection, consumer));
+    }
+
+    @GetMapping(params = "limit")
+    public CompletableFuture<MappingJacksonValue> findPage(
+            @RequestParam @Positive @Max(1000) int limit,
+            @RequestParam(defaultValue = "0") @PositiveOrZero Long after,
+            @RequestParam(required = false) String fields,
+            WebRequest request) {
+        Set<UserField> projection = Projections.parse(UserField.class, fields);
+        CompletableFuture<CursorPage<User>> page = requestExecutor.submitIfModified(
+                request,
+                entityVersions.usersTag(),
+                Workload.READ,
+                () -> userService.findPage(after, limit, projection));
+        return page == null ? null : page.thenApply(body -> Projections.wrap(body, projection));
     }
 
     @PostMapping
-    public User add(@Valid @RequestBody User user) {
-        return userService.add(user);
+    public CompletableFuture<User> add(@Valid @RequestBody User user) {
+        return requestExecutor.submit(Workload.WRITE, () -> userService.add(user));
+    }
+
+    @PostMapping("/batch")
+    public CompletableFuture<BatchResult<User>> addAll(
+            @RequestBody @NotEmpty @Size(max = 10000) List<@Valid User> users) {
+        return requestExecutor.submit(Workload.WRITE, () -> userService.addAll(users));
     }
 
     @PutMapping
-    public User update(@Valid @RequestBody User user) {
-        return userService.update(user);
+    public CompletableFuture<User> update(@Valid @RequestBody User user) {
+        return requestExecutor.submit(Workload.WRITE, () -> userService.update(user));
     }
 
     @GetMapping("/{id}")
-    public User findById(@PathVariable Long id) {
-        return userService.findById(id);
+    public CompletableFuture<User> findById(@PathVariable Long id, WebRequest request) {
+        return requestExecutor.submitIfModified(
+                request, entityVersions.userTag(id), Workload.READ, () -> userService.findById(id));
+    }
+
+    @DeleteMapping("/{id}")
+    public CompletableFuture<Void> remove(@PathVariable Long id) {
+        return requestExecutor.run(Workload.WRITE, () -> userService.remove(id));
     }
 
     @PutMapping("/{id}/friends/{friendId}")
-    public void addFriend(@PathVariable Long id, @PathVariable Long friendId) {
-        userService.addFriend(id, friendId);
+    public CompletableFuture<Void> addFriend(@PathVariable Long id, @PathVariable Long friendId) {
+        return requestExecutor.run(Workload.WRITE, () -> userService.addFriend(id, friendId));
     }
 
     @DeleteMapping("/{id}/friends/{friendId}")
-    public void deleteFriend(@PathVariable Long id, @PathVariable Long friendId) {
-        userService.deleteFriend(id, friendId);
+    public CompletableFuture<Void> deleteFriend(@PathVariable Long id, @PathVariable Long friendId) {
+        return requestExecutor.run(Workload.WRITE, () -> userService.deleteFriend(id, friendId));
     }
 
     @GetMapping("/{id}/friends")
-    public List<User> getFriends(@PathVariable Long id) {
-        return userService.getFriends(id);
+    public CompletableFuture<List<User>> getFriends(@PathVariable Long id, WebRequest request) {
+        return requestExecutor.submitIfModified(
+                request, entityVersions.usersTag(), Workload.READ, () -> userService.getFriends(id));
     }
 
     @GetMapping("/{id}/friends/common/{otherId}")
-    public List<User> getMutualFriends(@PathVariable Long id, @PathVariable Long otherId) {
-        return userService.getMutualFriends(id, otherId);
+    public CompletableFuture<List<User>> getMutualFriends(
+            @PathVariable Long id,
+            @PathVariable Long otherId,
+            WebRequest request) {
+        return requestExecutor.submitIfModified(
+                request, entityVersions.usersTag(), Workload.READ, () -> userService.getMutualFriends(id, otherId));
+    }
+
+    @GetMapping("/{id}/suggestions")
+    public CompletableFuture<List<User>> getSuggestions(
+            @PathVariable Long id,
+            @RequestParam(defaultValue = "10") @Positive @Max(100) int limit) {
+        return requestExecutor.submit(Workload.READ, () -> userService.getSuggestions(id, limit));
     }
 }
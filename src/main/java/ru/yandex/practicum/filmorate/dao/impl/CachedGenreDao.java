@@ -0,0 +1,57 @@
+package ru.yandex.practicum.filmorate.dao.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dao.GenreDao;
+import ru.yandex.practicum.filmorate.exception.CustomExceptions;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.util.DictionaryCache;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+
+@Component
+@Primary
+@Slf4j
+public class CachedGenreDao implements GenreDao {
+    private final DictionaryCache<Genre> cache;
+
+    public CachedGenreDao(@Qualifier("genreDaoImpl") GenreDao genreDao) {
+        this.cache = new DictionaryCache<>(genreDao::findAll, Genre::getId);
+    }
+
+    @PostConstruct
+    public void refresh() {
+        log.info("Справочник жанров загружен в кэш. Записей: {}", cache.refresh());
+    }
+
+    @Override
+    public List<Genre> findAll() {
+        return cache.findAll();
+    }
+
+    @Override
+    public Genre findById(Long id) {
+        Genre genre = cache.find(id);
+        if (genre == null) {
+            throw new CustomExceptions.GenreDoesNotExistsException(
+                    String.format("Жанр с id = %s не существует", id)
+            );
+        }
+        return genre;
+    }
+
+    public long getVersion() {
+        return cache.getVersion();
+    }
+
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    public long getMisses() {
+        return cache.getMisses();
+    }
+}
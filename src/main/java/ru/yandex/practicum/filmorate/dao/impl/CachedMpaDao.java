@@ -0,0 +1,57 @@
+package ru.yandex.practicum.filmorate.dao.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dao.MpaDao;
+import ru.yandex.practicum.filmorate.exception.CustomExceptions;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.util.DictionaryCache;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+
+@Component
+@Primary
+@Slf4j
+public class CachedMpaDao implements MpaDao {
+    private final DictionaryCache<Mpa> cache;
+
+    public CachedMpaDao(@Qualifier("mpaDaoImpl") MpaDao mpaDao) {
+        this.cache = new DictionaryCache<>(mpaDao::findAll, Mpa::getId);
+    }
+
+    @PostConstruct
+    public void refresh() {
+        log.info("Справочник рейтингов MPA загружен в кэш. Записей: {}", cache.refresh());
+    }
+
+    @Override
+    public List<Mpa> findAll() {
+        return cache.findAll();
+    }
+
+    @Override
+    public Mpa findById(Long id) {
+        Mpa mpa = cache.find(id);
+        if (mpa == null) {
+            throw new CustomExceptions.MpaDoesNotExistsException(
+                    String.format("Рейтинг с id = %s не существует", id)
+            );
+        }
+        return mpa;
+    }
+
+    public long getVersion() {
+        return cache.getVersion();
+    }
+
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    public long getMisses() {
+        return cache.getMisses();
+    }
+}
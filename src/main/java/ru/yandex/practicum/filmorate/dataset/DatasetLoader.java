@@ -0,0 +1,341 @@
+package ru.yandex.practicum.filmorate.dataset;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+import ru.yandex.practicum.filmorate.dao.GenreDao;
+import ru.yandex.practicum.filmorate.dao.MpaDao;
+import ru.yandex.practicum.filmorate.index.EntityVersions;
+import ru.yandex.practicum.filmorate.index.FriendGraph;
+import ru.yandex.practicum.filmorate.index.PopularFilmsIndex;
+import ru.yandex.practicum.filmorate.index.SimilarFilmsIndex;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.storage.CachingFilmStorage;
+import ru.yandex.practicum.filmorate.util.PowerLaw;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Генерирует синтетические данные в CSV по частям параллельно и загружает их в таблицы через CSVREAD.
+// Каждая часть получает свой генератор из общего seed, поэтому результат не зависит от числа ядер.
+@Component
+@Profile("dataset")
+@Slf4j
+public class DatasetLoader implements ApplicationRunner {
+    private static final int PARTITION_SIZE = 10_000;
+    private static final long USER_SALT = 0x9E3779B97F4A7C15L;
+    private static final long FILM_SALT = 0xC2B2AE3D27D4EB4FL;
+    private static final LocalDate MIN_BIRTHDAY = LocalDate.of(1950, 1, 1);
+    private static final LocalDate MIN_RELEASE_DATE = LocalDate.of(1950, 1, 1);
+    private static final String CSVREAD = "csvread('%s', null, 'charset=UTF-8')";
+    private static final List<Table> LOAD_ORDER = List.of(
+            new Table("users", "insert into \"USER\"(id, email, login, name, birthday) "
+                    + "select id, email, login, name, birthday from " + CSVREAD),
+            new Table("films", "insert into film(id, name, description, release_date, duration, rating_id) "
+                    + "select id, name, description, release_date, duration, rating_id from " + CSVREAD),
+            new Table("films_genres", "insert into films_genres(film_id, genre_id) "
+                    + "select film_id, genre_id from " + CSVREAD),
+            new Table("likes", "insert into likes(film_id, user_id) select film_id, user_id from " + CSVREAD),
+            new Table("friends", "insert into friends(user_id, friend_id, confirm) "
+                    + "select user_id, friend_id, true from " + CSVREAD));
+
+    private final JdbcTemplate jdbcTemplate;
+    private final GenreDao genreDao;
+    private final MpaDao mpaDao;
+    private final CachingFilmStorage filmCache;
+    private final PopularFilmsIndex popularFilmsIndex;
+    private final SimilarFilmsIndex similarFilmsIndex;
+    private final FriendGraph friendGraph;
+    private final EntityVersions entityVersions;
+    private final ConfigurableApplicationContext context;
+    private final String storageMode;
+    private final long seed;
+    private final int users;
+    private final int films;
+    private final int maxGenresPerFilm;
+    private final int minLikes;
+    private final int maxLikes;
+    private final int minFriends;
+    private final int maxFriends;
+    private final double degreeExponent;
+    private final double popularityExponent;
+    private final boolean exitAfterLoad;
+
+    public DatasetLoader(
+            JdbcTemplate jdbcTemplate,
+            GenreDao genreDao,
+            MpaDao mpaDao,
+            @Qualifier("filmCache") CachingFilmStorage filmCache,
+            PopularFilmsIndex popularFilmsIndex,
+            SimilarFilmsIndex similarFilmsIndex,
+            FriendGraph friendGraph,
+            EntityVersions entityVersions,
+            ConfigurableApplicationContext context,
+            @Value("${filmorate.storage.mode:db}") String storageMode,
+            @Value("${filmorate.dataset.seed:42}") long seed,
+            @Value("${filmorate.dataset.users:10000}") int users,
+            @Value("${filmorate.dataset.films:10000}") int films,
+            @Value("${filmorate.dataset.max-genres-per-film:3}") int maxGenresPerFilm,
+            @Value("${filmorate.dataset.likes.min-per-user:1}") int minLikes,
+            @Value("${filmorate.dataset.likes.max-per-user:1000}") int maxLikes,
+            @Value("${filmorate.dataset.friends.min-per-user:1}") int minFriends,
+            @Value("${filmorate.dataset.friends.max-per-user:1000}") int maxFriends,
+            @Value("${filmorate.dataset.degree-exponent:2.1}") double degreeExponent,
+            @Value("${filmorate.dataset.popularity-exponent:1.0}") double popularityExponent,
+            @Value("${filmorate.dataset.exit-after-load:false}") boolean exitAfterLoad) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.genreDao = genreDao;
+        this.mpaDao = mpaDao;
+        this.filmCache = filmCache;
+        this.popularFilmsIndex = popularFilmsIndex;
+        this.similarFilmsIndex = similarFilmsIndex;
+        this.friendGraph = friendGraph;
+        this.entityVersions = entityVersions;
+        this.context = context;
+        this.storageMode = storageMode;
+        this.seed = seed;
+        this.users = users;
+        this.films = films;
+        this.maxGenresPerFilm = maxGenresPerFilm;
+        this.minLikes = minLikes;
+        this.maxLikes = maxLikes;
+        this.minFriends = minFriends;
+        this.maxFriends = maxFriends;
+        this.degreeExponent = degreeExponent;
+        this.popularityExponent = popularityExponent;
+        this.exitAfterLoad = exitAfterLoad;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws IOException {
+        if (!"db".equalsIgnoreCase(storageMode)) {
+            throw new IllegalStateException("Профиль dataset загружает данные только в базу: filmorate.storage.mode=db");
+        }
+
+        long userOffset = maxId("\"USER\"");
+        long filmOffset = maxId("film");
+        Path dir = Files.createTempDirectory("filmorate-dataset");
+        try {
+            long start = System.currentTimeMillis();
+            List<Chunk> chunks = generate(dir, userOffset, filmOffset);
+            long generated = System.currentTimeMillis();
+            load(chunks);
+            restartIdentity("\"USER\"", userOffset + users + 1);
+            restartIdentity("film", filmOffset + films + 1);
+
+            log.info(
+                    "Синтетические данные: генерация {} мс, загрузка {} мс. Строк: {}",
+                    generated - start,
+                    System.currentTimeMillis() - generated,
+                    chunks.stream().collect(Collectors.groupingBy(
+                            chunk -> chunk.table, Collectors.summingLong(chunk -> chunk.rows))));
+        } finally {
+            FileSystemUtils.deleteRecursively(dir);
+        }
+
+        // CSVREAD пишет лайки в обход хранилища, поэтому счётчики фильмов пересчитываются отдельно.
+        filmCache.reconcileLikeCounts();
+        filmCache.invalidateAll();
+        popularFilmsIndex.rebuild();
+        similarFilmsIndex.rebuild();
+        friendGraph.rebuild();
+        entityVersions.invalidateAll();
+
+        if (exitAfterLoad) {
+            System.exit(SpringApplication.exit(context));
+        }
+    }
+
+    private List<Chunk> generate(Path dir, long userOffset, long filmOffset) {
+        List<Long> genreIds = genreDao.findAll().stream().map(Genre::getId).collect(Collectors.toList());
+        List<Long> mpaIds = mpaDao.findAll().stream().map(Mpa::getId).collect(Collectors.toList());
+        PowerLaw filmPopularity = new PowerLaw(films, popularityExponent);
+        PowerLaw userPopularity = new PowerLaw(users, popularityExponent);
+
+        int filmPartitions = (films + PARTITION_SIZE - 1) / PARTITION_SIZE;
+        int userPartitions = (users + PARTITION_SIZE - 1) / PARTITION_SIZE;
+
+        List<Chunk> chunks = new ArrayList<>();
+        IntStream.range(0, filmPartitions).parallel()
+                .mapToObj(partition -> writeFilms(dir, partition, filmOffset, genreIds, mpaIds))
+                .collect(Collectors.toList())
+                .forEach(chunks::addAll);
+        IntStream.range(0, userPartitions).parallel()
+                .mapToObj(partition -> writeUsers(
+                        dir, partition, userOffset, filmOffset, filmPopularity, userPopularity))
+                .collect(Collectors.toList())
+                .forEach(chunks::addAll);
+        return chunks;
+    }
+
+    private void load(List<Chunk> chunks) {
+        for (Table table : LOAD_ORDER) {
+            chunks.stream()
+                    .filter(chunk -> chunk.table.equals(table.name))
+                    .forEach(chunk -> jdbcTemplate.update(String.format(
+                            table.insert, chunk.file.toAbsolutePath().toString().replace("'", "''"))));
+        }
+    }
+
+    private List<Chunk> writeFilms(Path dir, int partition, long filmOffset, List<Long> genreIds, List<Long> mpaIds) {
+        SplittableRandom random = new SplittableRandom(seed ^ (FILM_SALT * (partition + 1)));
+        int from = partition * PARTITION_SIZE;
+        int to = Math.min(from + PARTITION_SIZE, films);
+        Path filmsFile = dir.resolve("films-" + partition + ".csv");
+        Path genresFile = dir.resolve("films_genres-" + partition + ".csv");
+        long genreRows = 0;
+
+        try (BufferedWriter filmRows = Files.newBufferedWriter(filmsFile, StandardCharsets.UTF_8);
+             BufferedWriter filmGenreRows = Files.newBufferedWriter(genresFile, StandardCharsets.UTF_8)) {
+            filmRows.write("ID,NAME,DESCRIPTION,RELEASE_DATE,DURATION,RATING_ID\n");
+            filmGenreRows.write("FILM_ID,GENRE_ID\n");
+
+            for (int i = from; i < to; i++) {
+                long filmId = filmOffset + i + 1;
+                LocalDate releaseDate = MIN_RELEASE_DATE.plusDays(random.nextInt(365 * 74));
+                filmRows.write(String.format(
+                        "%d,Film %d,Синтетический фильм,%s,%d,%d\n",
+                        filmId,
+                        filmId,
+                        releaseDate,
+                        60 + random.nextInt(150),
+                        mpaIds.get(random.nextInt(mpaIds.size()))));
+
+                int genres = Math.min(genreIds.size(), 1 + random.nextInt(maxGenresPerFilm));
+                for (int genre : distinct(random, genres, genreIds.size())) {
+                    filmGenreRows.write(filmId + "," + genreIds.get(genre) + "\n");
+                    genreRows++;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return List.of(new Chunk("films", filmsFile, to - from), new Chunk("films_genres", genresFile, genreRows));
+    }
+
+    private List<Chunk> writeUsers(
+            Path dir,
+            int partition,
+            long userOffset,
+            long filmOffset,
+            PowerLaw filmPopularity,
+            PowerLaw userPopularity) {
+        SplittableRandom random = new SplittableRandom(seed ^ (USER_SALT * (partition + 1)));
+        int from = partition * PARTITION_SIZE;
+        int to = Math.min(from + PARTITION_SIZE, users);
+        Path usersFile = dir.resolve("users-" + partition + ".csv");
+        Path likesFile = dir.resolve("likes-" + partition + ".csv");
+        Path friendsFile = dir.resolve("friends-" + partition + ".csv");
+        long likeRows = 0;
+        long friendRows = 0;
+
+        try (BufferedWriter userRows = Files.newBufferedWriter(usersFile, StandardCharsets.UTF_8);
+             BufferedWriter userLikeRows = Files.newBufferedWriter(likesFile, StandardCharsets.UTF_8);
+             BufferedWriter userFriendRows = Files.newBufferedWriter(friendsFile, StandardCharsets.UTF_8)) {
+            userRows.write("ID,EMAIL,LOGIN,NAME,BIRTHDAY\n");
+            userLikeRows.write("FILM_ID,USER_ID\n");
+            userFriendRows.write("USER_ID,FRIEND_ID\n");
+
+            for (int i = from; i < to; i++) {
+                long userId = userOffset + i + 1;
+                LocalDate birthday = MIN_BIRTHDAY.plusDays(random.nextInt(365 * 55));
+                userRows.write(String.format(
+                        "%d,user%d@dataset.ru,user%d,User %d,%s\n", userId, userId, userId, userId, birthday));
+
+                int likes = PowerLaw.degree(random, minLikes, Math.min(maxLikes, films), degreeExponent);
+                for (int film : sample(random, likes, filmPopularity, null)) {
+                    userLikeRows.write((filmOffset + film + 1) + "," + userId + "\n");
+                    likeRows++;
+                }
+
+                int friends = PowerLaw.degree(random, minFriends, Math.min(maxFriends, users - 1), degreeExponent);
+                for (int friend : sample(random, friends, userPopularity, i)) {
+                    userFriendRows.write(userId + "," + (userOffset + friend + 1) + "\n");
+                    friendRows++;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return List.of(
+                new Chunk("users", usersFile, to - from),
+                new Chunk("likes", likesFile, likeRows),
+                new Chunk("friends", friendsFile, friendRows));
+    }
+
+    // Популярные вершины выпадают часто, поэтому число попыток ограничено: у пользователя с огромной
+    // степенью может оказаться чуть меньше связей, чем выпало в распределении.
+    private static Set<Integer> sample(SplittableRandom random, int count, PowerLaw popularity, Integer exclude) {
+        Set<Integer> picked = new HashSet<>();
+        for (int attempt = 0; picked.size() < count && attempt < count * 10; attempt++) {
+            int value = popularity.sample(random);
+            if (!Objects.equals(value, exclude)) {
+                picked.add(value);
+            }
+        }
+        return picked;
+    }
+
+    private static Set<Integer> distinct(SplittableRandom random, int count, int bound) {
+        Set<Integer> picked = new HashSet<>();
+        while (picked.size() < count) {
+            picked.add(random.nextInt(bound));
+        }
+        return picked;
+    }
+
+    private long maxId(String table) {
+        Long maxId = jdbcTemplate.queryForObject("select max(id) from " + table, Long.class);
+        return maxId == null ? 0 : maxId;
+    }
+
+    private void restartIdentity(String table, long next) {
+        jdbcTemplate.execute(String.format("alter table %s alter column id restart with %d", table, next));
+    }
+
+    private static class Table {
+        private final String name;
+        private final String insert;
+
+        private Table(String name, String insert) {
+            this.name = name;
+            this.insert = insert;
+        }
+    }
+
+    private static class Chunk {
+        private final String table;
+        private final Path file;
+        private final long rows;
+
+        private Chunk(String table, Path file, long rows) {
+            this.table = table;
+            this.file = file;
+            this.rows = rows;
+        }
+    }
+}
@@ -36,4 +36,10 @@ public class CustomExceptions {
             super(error);
         }
     }
+
+    public static class UnknownFieldException extends RuntimeException {
+        public UnknownFieldException(String error) {
+            super(error);
+        }
+    }
 }
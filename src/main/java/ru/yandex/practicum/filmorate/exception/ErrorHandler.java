@@ -2,6 +2,7 @@ package ru.yandex.practicum.filmorate.exception;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -11,6 +12,7 @@ import org.springframework.web.bind.annotation.ResponseStatus;
 
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
+import java.util.concurrent.RejectedExecutionException;
 
 @ControllerAdvice
 @Slf4j
@@ -52,6 +54,14 @@ class ErrorHandler {
         return error;
     }
 
+    @ExceptionHandler(HttpMessageNotReadableException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ResponseBody
+    ErrorResponse getMessageNotReadableException(HttpMessageNotReadableException e) {
+        log.error("Некорректное тело запроса: {}", e.getMostSpecificCause().getMessage());
+        return new ErrorResponse("Некорректное тело запроса", e.getMostSpecificCause().getMessage());
+    }
+
     @ExceptionHandler({
             CustomExceptions.UserDoesNotExistsException.class,
             CustomExceptions.FilmDoesNotExistsException.class,
@@ -65,6 +75,22 @@ class ErrorHandler {
         return new ErrorResponse("Объект не найден", e.getMessage());
     }
 
+    @ExceptionHandler(CustomExceptions.UnknownFieldException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ResponseBody
+    ErrorResponse getUnknownFieldException(CustomExceptions.UnknownFieldException e) {
+        log.error("Неверная проекция: {}", e.getMessage());
+        return new ErrorResponse("fields", e.getMessage());
+    }
+
+    @ExceptionHandler(RejectedExecutionException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    @ResponseBody
+    ErrorResponse getRejectedExecutionException(RejectedExecutionException e) {
+        log.warn("Запрос отклонён: {}", e.getMessage());
+        return new ErrorResponse("Сервис перегружен", e.getMessage());
+    }
+
     @ExceptionHandler(Exception.class)
     @ResponseStatus(HttpStatus.INTERNAL_SERVER_ERROR)
     @ResponseBody
@@ -0,0 +1,88 @@
+package ru.yandex.practicum.filmorate.execution;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Ограничивает один класс нагрузки: не больше maxConcurrent задач держат соединение с базой одновременно,
+// не больше queueCapacity ждут своей очереди. Всё сверх этого отклоняется сразу, а не копится в памяти.
+// Лимиты держатся на семафорах, поэтому одинаково работают и с пулом потоков, и с виртуальными потоками.
+public class Bulkhead {
+    private final String name;
+    private final ExecutorService executor;
+    private final Semaphore admission;
+    private final Semaphore concurrency;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+
+    public Bulkhead(String name, ExecutorService executor, int maxConcurrent, int queueCapacity) {
+        this.name = name;
+        this.executor = executor;
+        this.admission = new Semaphore(maxConcurrent + queueCapacity);
+        this.concurrency = new Semaphore(maxConcurrent, true);
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        if (!admission.tryAcquire()) {
+            rejected.increment();
+            throw new RejectedExecutionException(String.format(
+                    "Очередь %s переполнена: %s запросов уже ждут выполнения", name, queued.get()));
+        }
+
+        queued.incrementAndGet();
+        try {
+            return CompletableFuture.supplyAsync(() -> run(task), executor);
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            admission.release();
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    public void shutdown(long timeoutMillis) throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    private <T> T run(Supplier<T> task) {
+        concurrency.acquireUninterruptibly();
+        queued.decrementAndGet();
+        active.incrementAndGet();
+        try {
+            return task.get();
+        } finally {
+            active.decrementAndGet();
+            completed.increment();
+            concurrency.release();
+            admission.release();
+        }
+    }
+}
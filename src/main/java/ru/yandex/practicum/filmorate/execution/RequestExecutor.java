@@ -0,0 +1,132 @@
+package ru.yandex.practicum.filmorate.execution;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.WebRequest;
+
+import javax.annotation.PreDestroy;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// В режиме blocking запрос выполняется на потоке Tomcat, как раньше. В режиме async работа с хранилищем
+// уходит в отдельный пул своего класса нагрузки, и медленные полные выборки не занимают потоки,
+// нужные дешёвым запросам. Пулы вместе не должны превышать пул соединений с базой.
+@Component
+@Slf4j
+public class RequestExecutor {
+    private static final String ASYNC_MODE = "async";
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10_000;
+
+    private final boolean async;
+    private final Map<Workload, Bulkhead> bulkheads = new EnumMap<>(Workload.class);
+
+    public RequestExecutor(
+            @Value("${filmorate.execution.mode:blocking}") String mode,
+            @Value("${filmorate.execution.virtual-threads:false}") boolean virtualThreads,
+            @Value("${filmorate.execution.reads.max-concurrent:5}") int maxReads,
+            @Value("${filmorate.execution.reads.queue-capacity:200}") int readQueue,
+            @Value("${filmorate.execution.writes.max-concurrent:3}") int maxWrites,
+            @Value("${filmorate.execution.writes.queue-capacity:100}") int writeQueue,
+            @Value("${filmorate.execution.scans.max-concurrent:2}") int maxScans,
+            @Value("${filmorate.execution.scans.queue-capacity:10}") int scanQueue) {
+        this.async = ASYNC_MODE.equalsIgnoreCase(mode);
+        if (!async) {
+            return;
+        }
+
+        bulkheads.put(Workload.READ, newBulkhead(Workload.READ, virtualThreads, maxReads, readQueue));
+        bulkheads.put(Workload.WRITE, newBulkhead(Workload.WRITE, virtualThreads, maxWrites, writeQueue));
+        bulkheads.put(Workload.SCAN, newBulkhead(Workload.SCAN, virtualThreads, maxScans, scanQueue));
+        log.info("Запросы выполняются в отдельных пулах: чтение {}, запись {}, полные выборки {}",
+                maxReads, maxWrites, maxScans);
+    }
+
+    public <T> CompletableFuture<T> submit(Workload workload, Supplier<T> task) {
+        if (!async) {
+            return CompletableFuture.completedFuture(task.get());
+        }
+        return bulkheads.get(workload).submit(task);
+    }
+
+    // Если клиент прислал актуальный ETag, 304 отправляется сразу, без пула, базы и Jackson.
+    // Пустой результат для Spring MVC означает, что ответ уже сформирован.
+    public <T> CompletableFuture<T> submitIfModified(
+            WebRequest request, String eTag, Workload workload, Supplier<T> task) {
+        if (request.checkNotModified(eTag)) {
+            return null;
+        }
+        return submit(workload, task);
+    }
+
+    public CompletableFuture<Void> run(Workload workload, Runnable task) {
+        return submit(workload, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    // Для StreamingResponseBody: ответ пишется из потока Spring MVC, но чтение из базы
+    // всё равно проходит через пул своего класса нагрузки.
+    public void runAndWait(Workload workload, Runnable task) {
+        try {
+            run(workload, task).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public Collection<Bulkhead> getBulkheads() {
+        return bulkheads.values();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        for (Bulkhead bulkhead : bulkheads.values()) {
+            bulkhead.shutdown(SHUTDOWN_TIMEOUT_MILLIS);
+        }
+    }
+
+    private static Bulkhead newBulkhead(Workload workload, boolean virtualThreads, int maxConcurrent, int queueCapacity) {
+        String name = workload.name().toLowerCase();
+        ExecutorService executor = virtualThreads ? newVirtualThreadExecutor(name) : null;
+        if (executor == null) {
+            AtomicInteger threads = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(maxConcurrent, runnable -> {
+                Thread thread = new Thread(runnable, "filmorate-" + name + "-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return new Bulkhead(name, executor, maxConcurrent, queueCapacity);
+    }
+
+    // Проект собирается под Java 11, поэтому фабрика виртуальных потоков ищется в рантайме.
+    private static ExecutorService newVirtualThreadExecutor(String name) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.warn("Виртуальные потоки недоступны в Java {}, пул {} работает на обычных потоках",
+                    Runtime.version(), name);
+            return null;
+        }
+    }
+
+    public enum Workload {
+        READ,
+        WRITE,
+        SCAN
+    }
+}
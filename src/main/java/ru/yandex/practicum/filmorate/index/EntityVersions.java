@@ -0,0 +1,90 @@
+package ru.yandex.practicum.filmorate.index;
+
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dao.impl.CachedGenreDao;
+import ru.yandex.practicum.filmorate.dao.impl.CachedMpaDao;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Версии фильмов, пользователей и их коллекций для ETag. Сервисы поднимают версию после записи,
+// а контроллер читает её до запроса к хранилищу: тег может оказаться старше данных, но не новее,
+// поэтому клиент никогда не получит 304 на изменившийся ответ.
+// Версия коллекции — один AtomicLong: чтение стоит одного volatile-чтения при любом числе писателей.
+// Версия записи берётся из счётчика её коллекции, поэтому значения не повторяются, и запись удалённой
+// сущности можно выбросить: без записи тег строится от момента последнего удаления, а он новее всех
+// версий, выданных удалённой сущности.
+@Component
+public class EntityVersions {
+    private final String startedAt = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong films = new AtomicLong();
+    private final AtomicLong users = new AtomicLong();
+    private final AtomicLong filmsRemovedAt = new AtomicLong();
+    private final AtomicLong usersRemovedAt = new AtomicLong();
+    private final Map<Long, Long> filmVersions = new ConcurrentHashMap<>();
+    private final Map<Long, Long> userVersions = new ConcurrentHashMap<>();
+    private final CachedGenreDao genreDao;
+    private final CachedMpaDao mpaDao;
+    private volatile String prefix;
+
+    public EntityVersions(CachedGenreDao genreDao, CachedMpaDao mpaDao) {
+        this.genreDao = genreDao;
+        this.mpaDao = mpaDao;
+        this.prefix = startedAt + "-0";
+    }
+
+    public void filmChanged(Long filmId) {
+        filmVersions.merge(filmId, films.incrementAndGet(), Math::max);
+    }
+
+    public void filmRemoved(Long filmId) {
+        filmVersions.remove(filmId);
+        filmsRemovedAt.accumulateAndGet(films.incrementAndGet(), Math::max);
+    }
+
+    public void userChanged(Long userId) {
+        userVersions.merge(userId, users.incrementAndGet(), Math::max);
+    }
+
+    public void userRemoved(Long userId) {
+        userVersions.remove(userId);
+        usersRemovedAt.accumulateAndGet(users.incrementAndGet(), Math::max);
+    }
+
+    // Для записей в обход сервисов, например массовой загрузки: все выданные раньше теги перестают совпадать.
+    public void invalidateAll() {
+        prefix = startedAt + "-" + generation.incrementAndGet();
+    }
+
+    public String filmTag(Long filmId) {
+        Long version = filmVersions.get(filmId);
+        return tag("f" + (version == null ? filmsRemovedAt.get() : version));
+    }
+
+    public String filmsTag() {
+        return tag("fs" + films.get());
+    }
+
+    public String userTag(Long userId) {
+        Long version = userVersions.get(userId);
+        return tag("u" + (version == null ? usersRemovedAt.get() : version));
+    }
+
+    public String usersTag() {
+        return tag("us" + users.get());
+    }
+
+    public String genresTag() {
+        return tag("g" + genreDao.getVersion());
+    }
+
+    public String mpaTag() {
+        return tag("m" + mpaDao.getVersion());
+    }
+
+    private String tag(String version) {
+        return "\"" + prefix + "-" + version + "\"";
+    }
+}
@@ -0,0 +1,410 @@
+package ru.yandex.practicum.filmorate.index;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.IdSet;
+import ru.yandex.practicum.filmorate.storage.UserStorage;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
+
+// Основа графа — два неизменяемых CSR (исходящие и входящие связи), поверх неё лежат слои изменений.
+// Уплотнение замораживает текущий слой, строит новую основу без блокировки и подменяет её атомарно;
+// новые изменения тем временем копятся в свежем слое.
+@Component
+@Slf4j
+public class FriendGraph {
+    private final UserStorage userStorage;
+    private final int maxFriendsScanned;
+    private final int hubSampleSize;
+    private final int compactionThreshold;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object compactionLock = new Object();
+    private Csr out = Csr.EMPTY;
+    private Csr in = Csr.EMPTY;
+    private Overlay frozen;
+    private Overlay active = new Overlay();
+
+    public FriendGraph(
+            @Qualifier("userStorage") UserStorage userStorage,
+            @Value("${filmorate.suggestions.max-friends:1000}") int maxFriendsScanned,
+            @Value("${filmorate.suggestions.hub-sample:500}") int hubSampleSize,
+            @Value("${filmorate.suggestions.compaction-threshold:100000}") int compactionThreshold) {
+        this.userStorage = userStorage;
+        this.maxFriendsScanned = maxFriendsScanned;
+        this.hubSampleSize = hubSampleSize;
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    @PostConstruct
+    public void rebuild() {
+        synchronized (compactionLock) {
+            EdgeList edges = new EdgeList();
+            userStorage.forEachFriendEdge(edges::add);
+            Csr[] csr = Csr.build(edges);
+
+            lock.writeLock().lock();
+            try {
+                out = csr[0];
+                in = csr[1];
+                frozen = null;
+                active = new Overlay();
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            log.info("Граф друзей построен. Пользователей: {}, связей: {}", csr[0].nodes.length, edges.size);
+        }
+    }
+
+    public void addEdge(long userId, long friendId) {
+        lock.writeLock().lock();
+        try {
+            if (removeFrom(active.removedOut, userId, friendId)) {
+                removeFrom(active.removedIn, friendId, userId);
+            } else if (!contains(userId, friendId)) {
+                addTo(active.addedOut, userId, friendId);
+                addTo(active.addedIn, friendId, userId);
+            }
+            active.changes++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeEdge(long userId, long friendId) {
+        lock.writeLock().lock();
+        try {
+            unlink(userId, friendId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Удаление пользователя каскадом убирает его связи в обе стороны. Возвращает тех, у кого он был в друзьях.
+    public IdSet removeUser(long userId) {
+        lock.writeLock().lock();
+        try {
+            List<Overlay> layers = layers();
+            IdSet followers = neighbours(in, layers, userId, false);
+            for (long friendId : neighbours(out, layers, userId, true).toLongArray()) {
+                unlink(userId, friendId);
+            }
+            for (long followerId : followers.toLongArray()) {
+                unlink(followerId, userId);
+            }
+            return followers;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public List<Long> suggest(long userId, int limit) {
+        Map<Long, int[]> mutualCounts = new HashMap<>();
+
+        lock.readLock().lock();
+        try {
+            List<Overlay> layers = layers();
+            IdSet friends = neighbours(out, layers, userId, true);
+            long[] friendIds = friends.toLongArray();
+            int step = stride(friendIds.length, maxFriendsScanned);
+            for (int i = 0; i < friendIds.length; i += step) {
+                forEachSampled(layers, friendIds[i], candidateId -> {
+                    if (candidateId != userId && !friends.contains(candidateId)) {
+                        mutualCounts.computeIfAbsent(candidateId, x -> new int[1])[0]++;
+                    }
+                });
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return top(mutualCounts, limit);
+    }
+
+    // Запросы только копят изменения, уплотнение идёт в потоке планировщика. Под блокировкой записи
+    // слой лишь замораживается и основа подменяется; сама сборка CSR идёт без блокировки.
+    @Scheduled(fixedDelayString = "${filmorate.suggestions.compaction-interval-ms:1000}")
+    public void compactIfNeeded() {
+        synchronized (compactionLock) {
+            Csr base;
+            Overlay layer;
+            lock.writeLock().lock();
+            try {
+                if (active.changes < compactionThreshold) {
+                    return;
+                }
+                frozen = active;
+                active = new Overlay();
+                base = out;
+                layer = frozen;
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            EdgeList edges = new EdgeList();
+            List<Overlay> layers = List.of(layer);
+            long[] nodes = Arrays.copyOf(base.nodes, base.nodes.length + layer.addedOut.size());
+            int count = base.nodes.length;
+            for (Long node : layer.addedOut.keySet()) {
+                nodes[count++] = node;
+            }
+            for (long node : uniqueSorted(nodes)) {
+                for (long target : neighbours(base, layers, node, true).toLongArray()) {
+                    edges.add(node, target);
+                }
+            }
+            Csr[] csr = Csr.build(edges);
+
+            lock.writeLock().lock();
+            try {
+                out = csr[0];
+                in = csr[1];
+                frozen = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            log.info("Граф друзей уплотнён. Связей: {}", edges.size);
+        }
+    }
+
+    private void unlink(long userId, long friendId) {
+        if (removeFrom(active.addedOut, userId, friendId)) {
+            removeFrom(active.addedIn, friendId, userId);
+        } else if (contains(userId, friendId)) {
+            addTo(active.removedOut, userId, friendId);
+            addTo(active.removedIn, friendId, userId);
+        }
+        active.changes++;
+    }
+
+    // Слои применяются по порядку: сначала замороженный, потом текущий.
+    private List<Overlay> layers() {
+        return frozen == null ? List.of(active) : List.of(frozen, active);
+    }
+
+    private boolean contains(long from, long to) {
+        List<Overlay> layers = layers();
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            Overlay layer = layers.get(i);
+            if (has(layer.removedOut, from, to)) {
+                return false;
+            }
+            if (has(layer.addedOut, from, to)) {
+                return true;
+            }
+        }
+        return out.contains(from, to);
+    }
+
+    private List<Long> top(Map<Long, int[]> mutualCounts, int limit) {
+        PriorityQueue<Map.Entry<Long, int[]>> best = new PriorityQueue<>((x, y) -> {
+            int byCount = Integer.compare(x.getValue()[0], y.getValue()[0]);
+            return byCount != 0 ? byCount : Long.compare(y.getKey(), x.getKey());
+        });
+        for (Map.Entry<Long, int[]> entry : mutualCounts.entrySet()) {
+            best.add(entry);
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+
+        List<Long> ids = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            ids.add(best.poll().getKey());
+        }
+        Collections.reverse(ids);
+        return ids;
+    }
+
+    private void forEachSampled(List<Overlay> layers, long node, LongConsumer consumer) {
+        int row = in.row(node);
+        if (row >= 0) {
+            int from = in.offsets[row];
+            int to = in.offsets[row + 1];
+            int step = stride(to - from, hubSampleSize);
+            for (int i = from; i < to; i += step) {
+                long target = in.targets[i];
+                if (!removedAfter(layers, 0, node, target)) {
+                    consumer.accept(target);
+                }
+            }
+        }
+
+        for (int layer = 0; layer < layers.size(); layer++) {
+            IdSet addedHere = layers.get(layer).addedIn.get(node);
+            if (addedHere == null) {
+                continue;
+            }
+            long[] targets = addedHere.toLongArray();
+            int step = stride(targets.length, hubSampleSize);
+            for (int i = 0; i < targets.length; i += step) {
+                if (!removedAfter(layers, layer + 1, node, targets[i])) {
+                    consumer.accept(targets[i]);
+                }
+            }
+        }
+    }
+
+    private static boolean removedAfter(List<Overlay> layers, int fromLayer, long node, long target) {
+        for (int i = fromLayer; i < layers.size(); i++) {
+            if (has(layers.get(i).removedIn, node, target)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static IdSet neighbours(Csr csr, List<Overlay> layers, long node, boolean outgoing) {
+        IdSet result = new IdSet();
+        int row = csr.row(node);
+        if (row >= 0) {
+            result = new IdSet(csr.offsets[row + 1] - csr.offsets[row]);
+            for (int i = csr.offsets[row]; i < csr.offsets[row + 1]; i++) {
+                result.add(csr.targets[i]);
+            }
+        }
+
+        for (Overlay layer : layers) {
+            IdSet removedHere = (outgoing ? layer.removedOut : layer.removedIn).get(node);
+            if (removedHere != null) {
+                result.removeAll(removedHere);
+            }
+            IdSet addedHere = (outgoing ? layer.addedOut : layer.addedIn).get(node);
+            if (addedHere != null) {
+                result = result.union(addedHere);
+            }
+        }
+        return result;
+    }
+
+    private static int stride(int degree, int cap) {
+        return degree <= cap ? 1 : (degree + cap - 1) / cap;
+    }
+
+    private static void addTo(Map<Long, IdSet> edges, long from, long to) {
+        edges.computeIfAbsent(from, x -> new IdSet()).add(to);
+    }
+
+    private static boolean has(Map<Long, IdSet> edges, long from, long to) {
+        IdSet targets = edges.get(from);
+        return targets != null && targets.contains(to);
+    }
+
+    private static boolean removeFrom(Map<Long, IdSet> edges, long from, long to) {
+        IdSet targets = edges.get(from);
+        if (targets == null || !targets.remove(to)) {
+            return false;
+        }
+        if (targets.isEmpty()) {
+            edges.remove(from);
+        }
+        return true;
+    }
+
+    private static long[] uniqueSorted(long[] values) {
+        Arrays.sort(values);
+        int unique = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (i == 0 || values[i] != values[unique - 1]) {
+                values[unique++] = values[i];
+            }
+        }
+        return Arrays.copyOf(values, unique);
+    }
+
+    // Изменения поверх основы: добавленные рёбра в ней отсутствуют, удалённые — присутствуют.
+    private static class Overlay {
+        private final Map<Long, IdSet> addedOut = new HashMap<>();
+        private final Map<Long, IdSet> removedOut = new HashMap<>();
+        private final Map<Long, IdSet> addedIn = new HashMap<>();
+        private final Map<Long, IdSet> removedIn = new HashMap<>();
+        private int changes;
+    }
+
+    private static class EdgeList {
+        private long[] from = new long[1024];
+        private long[] to = new long[1024];
+        private int size;
+
+        private void add(long fromId, long toId) {
+            if (size == from.length) {
+                from = Arrays.copyOf(from, size * 2);
+                to = Arrays.copyOf(to, size * 2);
+            }
+            from[size] = fromId;
+            to[size] = toId;
+            size++;
+        }
+    }
+
+    private static class Csr {
+        private static final Csr EMPTY = new Csr(new long[0], new int[]{0}, new long[0]);
+
+        private final long[] nodes;
+        private final int[] offsets;
+        private final long[] targets;
+
+        private Csr(long[] nodes, int[] offsets, long[] targets) {
+            this.nodes = nodes;
+            this.offsets = offsets;
+            this.targets = targets;
+        }
+
+        // Рёбра должны идти по возрастанию (from, to): тогда строки обоих направлений получаются отсортированными.
+        private static Csr[] build(EdgeList edges) {
+            long[] ids = new long[edges.size * 2];
+            System.arraycopy(edges.from, 0, ids, 0, edges.size);
+            System.arraycopy(edges.to, 0, ids, edges.size, edges.size);
+            long[] nodes = uniqueSorted(ids);
+
+            int[] outOffsets = new int[nodes.length + 1];
+            int[] inOffsets = new int[nodes.length + 1];
+            int[] fromRows = new int[edges.size];
+            int[] toRows = new int[edges.size];
+            for (int i = 0; i < edges.size; i++) {
+                fromRows[i] = Arrays.binarySearch(nodes, edges.from[i]);
+                toRows[i] = Arrays.binarySearch(nodes, edges.to[i]);
+                outOffsets[fromRows[i] + 1]++;
+                inOffsets[toRows[i] + 1]++;
+            }
+            for (int i = 0; i < nodes.length; i++) {
+                outOffsets[i + 1] += outOffsets[i];
+                inOffsets[i + 1] += inOffsets[i];
+            }
+
+            long[] outTargets = new long[edges.size];
+            long[] inTargets = new long[edges.size];
+            int[] outFill = Arrays.copyOf(outOffsets, nodes.length);
+            int[] inFill = Arrays.copyOf(inOffsets, nodes.length);
+            for (int i = 0; i < edges.size; i++) {
+                outTargets[outFill[fromRows[i]]++] = edges.to[i];
+                inTargets[inFill[toRows[i]]++] = edges.from[i];
+            }
+
+            return new Csr[]{new Csr(nodes, outOffsets, outTargets), new Csr(nodes, inOffsets, inTargets)};
+        }
+
+        private int row(long node) {
+            int row = Arrays.binarySearch(nodes, node);
+            return row >= 0 ? row : -1;
+        }
+
+        private boolean contains(long from, long to) {
+            int row = row(from);
+            return row >= 0 && Arrays.binarySearch(targets, offsets[row], offsets[row + 1], to) >= 0;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package ru.yandex.practicum.filmorate.index;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+@Component
+@Slf4j
+public class PopularFilmsIndex {
+    private static final Comparator<FilmRank> RANK_ORDER =
+            Comparator.comparingLong(FilmRank::getLikes).reversed().thenComparing(FilmRank::getFilmId);
+
+    private final FilmStorage filmStorage;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, FilmRank> ranks = new HashMap<>();
+    private final NavigableSet<FilmRank> ranking = new TreeSet<>(RANK_ORDER);
+
+    public PopularFilmsIndex(@Qualifier("filmStorage") FilmStorage filmStorage) {
+        this.filmStorage = filmStorage;
+    }
+
+    @PostConstruct
+    public void rebuild() {
+        Map<Long, Long> likeCounts = filmStorage.findLikeCounts();
+
+        lock.writeLock().lock();
+        try {
+            ranks.clear();
+            ranking.clear();
+            likeCounts.forEach(this::put);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        log.info("Индекс популярных фильмов построен. Фильмов в индексе: {}", likeCounts.size());
+    }
+
+    public void setLikes(Long filmId, long likes) {
+        lock.writeLock().lock();
+        try {
+            put(filmId, likes);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void incrementLikes(Long filmId) {
+        changeLikes(filmId, 1);
+    }
+
+    public void decrementLikes(Long filmId) {
+        changeLikes(filmId, -1);
+    }
+
+    // Пакет изменений счётчиков применяется под одной блокировкой записи.
+    public void changeLikes(Map<Long, Long> deltas) {
+        lock.writeLock().lock();
+        try {
+            deltas.forEach(this::shift);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeFilm(Long filmId) {
+        lock.writeLock().lock();
+        try {
+            FilmRank rank = ranks.remove(filmId);
+            if (rank != null) {
+                ranking.remove(rank);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public List<Long> getTop(long count) {
+        List<Long> top = new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            Iterator<FilmRank> iterator = ranking.iterator();
+            while (top.size() < count && iterator.hasNext()) {
+                top.add(iterator.next().getFilmId());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return top;
+    }
+
+    public long getLikes(Long filmId) {
+        lock.readLock().lock();
+        try {
+            FilmRank rank = ranks.get(filmId);
+            return rank == null ? 0 : rank.getLikes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void changeLikes(Long filmId, long delta) {
+        lock.writeLock().lock();
+        try {
+            shift(filmId, delta);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void shift(Long filmId, long delta) {
+        FilmRank rank = ranks.get(filmId);
+        long likes = rank == null ? 0 : rank.getLikes();
+        put(filmId, Math.max(0, likes + delta));
+    }
+
+    private void put(Long filmId, long likes) {
+        FilmRank newRank = new FilmRank(filmId, likes);
+        FilmRank oldRank = ranks.put(filmId, newRank);
+        if (oldRank != null) {
+            ranking.remove(oldRank);
+        }
+        ranking.add(newRank);
+    }
+
+    @Value
+    private static class FilmRank {
+        Long filmId;
+        long likes;
+    }
+}
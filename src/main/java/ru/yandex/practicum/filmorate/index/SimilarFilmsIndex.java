@@ -0,0 +1,348 @@
+package ru.yandex.practicum.filmorate.index;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.IdSet;
+import ru.yandex.practicum.filmorate.model.LikeEvent;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+@Component
+@Slf4j
+public class SimilarFilmsIndex {
+    private static final int FILMS_PER_TASK = 64;
+    private static final Comparator<Map.Entry<Long, Integer>> NEIGHBOUR_ORDER =
+            Map.Entry.<Long, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey());
+
+    private final FilmStorage filmStorage;
+    private final int maxNeighbours;
+    private final int maxUserLikes;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Map<Long, IdSet> userToFilms = new HashMap<>();
+    private Map<Long, Map<Long, Integer>> neighbours = new HashMap<>();
+    private Map<Long, Integer> userStrides = new HashMap<>();
+    private List<LikeEvent> journal;
+
+    public SimilarFilmsIndex(
+            @Qualifier("filmStorage") FilmStorage filmStorage,
+            @Value("${filmorate.similar.max-neighbours:100}") int maxNeighbours,
+            @Value("${filmorate.similar.max-user-likes:500}") int maxUserLikes) {
+        this.filmStorage = filmStorage;
+        this.maxNeighbours = maxNeighbours;
+        this.maxUserLikes = maxUserLikes;
+    }
+
+    @PostConstruct
+    @Scheduled(
+            initialDelayString = "${filmorate.similar.rebuild-interval-ms:3600000}",
+            fixedDelayString = "${filmorate.similar.rebuild-interval-ms:3600000}")
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+
+        lock.writeLock().lock();
+        try {
+            journal = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        LikeRows likes = new LikeRows();
+        Map<Long, IdSet> rebuiltUserToFilms = new HashMap<>();
+        filmStorage.forEachLike((filmId, userId) -> {
+            likes.add(filmId, userId);
+            rebuiltUserToFilms.computeIfAbsent(userId, x -> new IdSet()).add(filmId);
+        });
+
+        Map<Long, Integer> rebuiltStrides = new HashMap<>();
+        Map<Long, long[]> sampledFilms = new HashMap<>();
+        rebuiltUserToFilms.forEach((userId, films) -> {
+            int stride = (films.size() + maxUserLikes - 1) / maxUserLikes;
+            if (stride > 1) {
+                rebuiltStrides.put(userId, stride);
+            }
+            sampledFilms.put(userId, sample(userId, films.toLongArray(), stride));
+        });
+
+        long[] filmIds = likes.filmIds();
+        int[] offsets = likes.offsets(filmIds);
+        @SuppressWarnings("unchecked")
+        Map<Long, Integer>[] rows = new Map[filmIds.length];
+        ForkJoinPool.commonPool().invoke(
+                new CountCoLikes(filmIds, offsets, likes.users, sampledFilms, rows, 0, filmIds.length));
+
+        Map<Long, Map<Long, Integer>> rebuiltNeighbours = new HashMap<>();
+        for (int i = 0; i < filmIds.length; i++) {
+            if (!rows[i].isEmpty()) {
+                rebuiltNeighbours.put(filmIds[i], rows[i]);
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            userToFilms = rebuiltUserToFilms;
+            neighbours = rebuiltNeighbours;
+            userStrides = rebuiltStrides;
+            List<LikeEvent> missed = journal;
+            journal = null;
+            missed.forEach(event -> apply(event.getFilmId(), event.getUserId(), event.getOp() == LikeEvent.Op.LIKE));
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        log.info(
+                "Индекс похожих фильмов построен за {} мс. Фильмов с соседями: {}",
+                System.currentTimeMillis() - start,
+                rebuiltNeighbours.size());
+    }
+
+    public void addLike(long filmId, long userId) {
+        record(filmId, userId, true);
+    }
+
+    public void removeLike(long filmId, long userId) {
+        record(filmId, userId, false);
+    }
+
+    // Пакет событий применяется под одной блокировкой записи.
+    public void applyLikes(List<LikeEvent> events) {
+        lock.writeLock().lock();
+        try {
+            for (LikeEvent event : events) {
+                if (journal != null) {
+                    journal.add(event);
+                }
+                apply(event.getFilmId(), event.getUserId(), event.getOp() == LikeEvent.Op.LIKE);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Лайки удалённого фильма снимаются как обычные отмены, затем фильм убирается из строк соседей,
+    // где он мог остаться после обрезки до maxNeighbours.
+    public void removeFilm(long filmId, Collection<Long> likers) {
+        lock.writeLock().lock();
+        try {
+            for (long userId : likers) {
+                if (journal != null) {
+                    journal.add(new LikeEvent(filmId, userId, LikeEvent.Op.UNLIKE));
+                }
+                apply(filmId, userId, false);
+            }
+            Map<Long, Integer> counts = neighbours.remove(filmId);
+            if (counts != null) {
+                for (Long otherId : counts.keySet()) {
+                    Map<Long, Integer> otherCounts = neighbours.get(otherId);
+                    if (otherCounts != null && otherCounts.remove(filmId) != null && otherCounts.isEmpty()) {
+                        neighbours.remove(otherId);
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public List<Long> getSimilar(long filmId, int limit) {
+        lock.readLock().lock();
+        try {
+            Map<Long, Integer> counts = neighbours.getOrDefault(filmId, Map.of());
+            return counts.entrySet().stream()
+                    .sorted(NEIGHBOUR_ORDER)
+                    .limit(limit)
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toList());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void record(long filmId, long userId, boolean liked) {
+        lock.writeLock().lock();
+        try {
+            if (journal != null) {
+                journal.add(new LikeEvent(filmId, userId, liked ? LikeEvent.Op.LIKE : LikeEvent.Op.UNLIKE));
+            }
+            apply(filmId, userId, liked);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Применение идемпотентно: повтор события из журнала после перестроения ничего не меняет.
+    // Лайк и его отмена проходят одну и ту же выборку, поэтому счётчики возвращаются к прежним значениям.
+    private void apply(long filmId, long userId, boolean liked) {
+        IdSet films = liked ? userToFilms.computeIfAbsent(userId, x -> new IdSet()) : userToFilms.get(userId);
+        if (films == null || (liked ? films.contains(filmId) : !films.remove(filmId))) {
+            return;
+        }
+
+        int stride = userStrides.getOrDefault(userId, 1);
+        if (sampled(userId, filmId, stride)) {
+            int delta = liked ? 1 : -1;
+            for (long otherId : sample(userId, films.toLongArray(), stride)) {
+                if (otherId != filmId) {
+                    bump(filmId, otherId, delta);
+                    bump(otherId, filmId, delta);
+                }
+            }
+        }
+
+        if (liked) {
+            films.add(filmId);
+        } else if (films.isEmpty()) {
+            userToFilms.remove(userId);
+        }
+    }
+
+    private void bump(long filmId, long otherId, int delta) {
+        if (delta > 0) {
+            Map<Long, Integer> counts = neighbours.computeIfAbsent(filmId, x -> new HashMap<>());
+            counts.merge(otherId, delta, Integer::sum);
+            if (counts.size() > maxNeighbours * 2) {
+                neighbours.put(filmId, prune(counts, maxNeighbours));
+            }
+            return;
+        }
+
+        Map<Long, Integer> counts = neighbours.get(filmId);
+        if (counts != null) {
+            counts.computeIfPresent(otherId, (id, count) -> count + delta > 0 ? count + delta : null);
+            if (counts.isEmpty()) {
+                neighbours.remove(filmId);
+            }
+        }
+    }
+
+    // У пользователя с шагом stride в выборку попадает примерно каждый stride-й фильм. Попадание зависит только
+    // от пары (пользователь, фильм), а шаг фиксируется при перестроении, так что лайк и отмена видят одну выборку.
+    // Пользователь, набравший лайки после перестроения, до следующего перестроения учитывается целиком.
+    private static long[] sample(long userId, long[] films, int stride) {
+        if (stride <= 1) {
+            return films;
+        }
+        return Arrays.stream(films).filter(filmId -> sampled(userId, filmId, stride)).toArray();
+    }
+
+    private static boolean sampled(long userId, long filmId, int stride) {
+        if (stride <= 1) {
+            return true;
+        }
+        long hash = userId * 0x9E3779B97F4A7C15L + filmId;
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        hash ^= hash >>> 31;
+        return Math.floorMod(hash, stride) == 0;
+    }
+
+    private static Map<Long, Integer> prune(Map<Long, Integer> counts, int size) {
+        Map<Long, Integer> pruned = new HashMap<>();
+        counts.entrySet().stream()
+                .sorted(NEIGHBOUR_ORDER)
+                .limit(size)
+                .forEach(entry -> pruned.put(entry.getKey(), entry.getValue()));
+        return pruned;
+    }
+
+    private class CountCoLikes extends RecursiveAction {
+        private final long[] filmIds;
+        private final int[] offsets;
+        private final long[] users;
+        private final Map<Long, long[]> sampledFilms;
+        private final Map<Long, Integer>[] rows;
+        private final int from;
+        private final int to;
+
+        private CountCoLikes(
+                long[] filmIds,
+                int[] offsets,
+                long[] users,
+                Map<Long, long[]> sampledFilms,
+                Map<Long, Integer>[] rows,
+                int from,
+                int to) {
+            this.filmIds = filmIds;
+            this.offsets = offsets;
+            this.users = users;
+            this.sampledFilms = sampledFilms;
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > FILMS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(
+                        new CountCoLikes(filmIds, offsets, users, sampledFilms, rows, from, middle),
+                        new CountCoLikes(filmIds, offsets, users, sampledFilms, rows, middle, to));
+                return;
+            }
+
+            for (int row = from; row < to; row++) {
+                Map<Long, Integer> counts = new HashMap<>();
+                for (int i = offsets[row]; i < offsets[row + 1]; i++) {
+                    long[] sampled = sampledFilms.get(users[i]);
+                    if (Arrays.binarySearch(sampled, filmIds[row]) < 0) {
+                        continue;
+                    }
+                    for (long otherId : sampled) {
+                        if (otherId != filmIds[row]) {
+                            counts.merge(otherId, 1, Integer::sum);
+                        }
+                    }
+                }
+                rows[row] = counts.size() > maxNeighbours ? prune(counts, maxNeighbours) : counts;
+            }
+        }
+    }
+
+    private static class LikeRows {
+        private long[] films = new long[1024];
+        private long[] users = new long[1024];
+        private int size;
+
+        private void add(long filmId, long userId) {
+            if (size == films.length) {
+                films = Arrays.copyOf(films, size * 2);
+                users = Arrays.copyOf(users, size * 2);
+            }
+            films[size] = filmId;
+            users[size] = userId;
+            size++;
+        }
+
+        private long[] filmIds() {
+            return Arrays.stream(films, 0, size).distinct().toArray();
+        }
+
+        private int[] offsets(long[] filmIds) {
+            int[] offsets = new int[filmIds.length + 1];
+            int row = 0;
+            for (int i = 0; i < size; i++) {
+                if (films[i] != filmIds[row]) {
+                    row++;
+                }
+                offsets[row + 1] = i + 1;
+            }
+            return offsets;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package ru.yandex.practicum.filmorate.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dao.impl.CachedGenreDao;
+import ru.yandex.practicum.filmorate.dao.impl.CachedMpaDao;
+import ru.yandex.practicum.filmorate.storage.CachingFilmStorage;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.WriteBehindFilmStorage;
+
+// Не MeterBinder: реестр собирает все MeterBinder при своём создании, а оно происходит внутри создания
+// filmCache (хранилище -> аспект метрик -> реестр). Метры регистрируются, когда все синглтоны готовы.
+@Component
+public class CacheMetrics implements SmartInitializingSingleton {
+    private final MeterRegistry registry;
+    private final CachingFilmStorage filmCache;
+    private final FilmStorage filmStorage;
+    private final CachedGenreDao genreDao;
+    private final CachedMpaDao mpaDao;
+
+    public CacheMetrics(
+            MeterRegistry registry,
+            @Qualifier("filmCache") CachingFilmStorage filmCache,
+            @Qualifier("filmStorage") FilmStorage filmStorage,
+            CachedGenreDao genreDao,
+            CachedMpaDao mpaDao) {
+        this.registry = registry;
+        this.filmCache = filmCache;
+        this.filmStorage = filmStorage;
+        this.genreDao = genreDao;
+        this.mpaDao = mpaDao;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        FunctionCounter.builder("filmorate.cache.hits", filmCache, CachingFilmStorage::getHits)
+                .tag("cache", "film")
+                .register(registry);
+        FunctionCounter.builder("filmorate.cache.misses", filmCache, CachingFilmStorage::getMisses)
+                .tag("cache", "film")
+                .register(registry);
+        FunctionCounter.builder("filmorate.cache.evictions", filmCache, CachingFilmStorage::getEvictions)
+                .tag("cache", "film")
+                .register(registry);
+        Gauge.builder("filmorate.cache.weight", filmCache, CachingFilmStorage::getWeight)
+                .tag("cache", "film")
+                .register(registry);
+
+        FunctionCounter.builder("filmorate.cache.hits", genreDao, CachedGenreDao::getHits)
+                .tag("cache", "genre")
+                .register(registry);
+        FunctionCounter.builder("filmorate.cache.misses", genreDao, CachedGenreDao::getMisses)
+                .tag("cache", "genre")
+                .register(registry);
+        FunctionCounter.builder("filmorate.cache.hits", mpaDao, CachedMpaDao::getHits)
+                .tag("cache", "mpa")
+                .register(registry);
+        FunctionCounter.builder("filmorate.cache.misses", mpaDao, CachedMpaDao::getMisses)
+                .tag("cache", "mpa")
+                .register(registry);
+
+        if (filmStorage instanceof WriteBehindFilmStorage) {
+            WriteBehindFilmStorage buffer = (WriteBehindFilmStorage) filmStorage;
+            Gauge.builder("filmorate.likes.buffer.depth", buffer, WriteBehindFilmStorage::getPendingCount)
+                    .register(registry);
+            Gauge.builder("filmorate.likes.buffer.flush.avg", buffer, WriteBehindFilmStorage::getAverageFlushMillis)
+                    .baseUnit("milliseconds")
+                    .register(registry);
+            FunctionCounter.builder("filmorate.likes.buffer.flushes", buffer, WriteBehindFilmStorage::getFlushes)
+                    .register(registry);
+            FunctionCounter.builder("filmorate.likes.buffer.flush.failures", buffer, WriteBehindFilmStorage::getFlushFailures)
+                    .register(registry);
+        }
+    }
+}
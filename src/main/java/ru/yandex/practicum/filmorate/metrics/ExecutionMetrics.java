@@ -0,0 +1,36 @@
+package ru.yandex.practicum.filmorate.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.execution.Bulkhead;
+import ru.yandex.practicum.filmorate.execution.RequestExecutor;
+
+@Component
+public class ExecutionMetrics implements MeterBinder {
+    private final RequestExecutor requestExecutor;
+
+    public ExecutionMetrics(RequestExecutor requestExecutor) {
+        this.requestExecutor = requestExecutor;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Bulkhead bulkhead : requestExecutor.getBulkheads()) {
+            Gauge.builder("filmorate.execution.queue.depth", bulkhead, Bulkhead::getQueued)
+                    .tag("workload", bulkhead.getName())
+                    .register(registry);
+            Gauge.builder("filmorate.execution.active", bulkhead, Bulkhead::getActive)
+                    .tag("workload", bulkhead.getName())
+                    .register(registry);
+            FunctionCounter.builder("filmorate.execution.rejected", bulkhead, Bulkhead::getRejected)
+                    .tag("workload", bulkhead.getName())
+                    .register(registry);
+            FunctionCounter.builder("filmorate.execution.completed", bulkhead, Bulkhead::getCompleted)
+                    .tag("workload", bulkhead.getName())
+                    .register(registry);
+        }
+    }
+}
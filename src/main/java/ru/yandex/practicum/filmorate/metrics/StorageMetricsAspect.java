@@ -0,0 +1,162 @@
+package ru.yandex.practicum.filmorate.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.util.JdbcRoundTrips;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+@Aspect
+@Component
+@Slf4j
+public class StorageMetricsAspect {
+    private final MeterRegistry registry;
+    private final int nPlusOneThreshold;
+    private final Map<String, StorageMeters> storageMeters = new ConcurrentHashMap<>();
+    private final Map<String, ServiceMeters> serviceMeters = new ConcurrentHashMap<>();
+    private final ThreadLocal<Map<String, Integer>> serviceCall = new ThreadLocal<>();
+
+    public StorageMetricsAspect(
+            MeterRegistry registry,
+            @Value("${filmorate.metrics.n-plus-one-threshold:10}") int nPlusOneThreshold) {
+        this.registry = registry;
+        this.nPlusOneThreshold = nPlusOneThreshold;
+    }
+
+    @Around("execution(public * ru.yandex.practicum.filmorate.storage.FilmDBStorage.*(..))"
+            + " || execution(public * ru.yandex.practicum.filmorate.storage.UserDBStorage.*(..))"
+            + " || execution(public * ru.yandex.practicum.filmorate.dao.impl.GenreDaoImpl.*(..))"
+            + " || execution(public * ru.yandex.practicum.filmorate.dao.impl.MpaDaoImpl.*(..))")
+    public Object measureStorageCall(ProceedingJoinPoint joinPoint) throws Throwable {
+        String storage = joinPoint.getTarget().getClass().getSimpleName();
+        String method = joinPoint.getSignature().getName();
+        String key = storage + "." + method;
+        StorageMeters meters = storageMeters.computeIfAbsent(key, x -> new StorageMeters(registry, storage, method));
+
+        long roundTrips = JdbcRoundTrips.get();
+        long rowsRead = JdbcRoundTrips.getRowsRead();
+        long rowsWritten = JdbcRoundTrips.getRowsWritten();
+        long connectionWait = JdbcRoundTrips.getConnectionWaitNanos();
+        long start = System.nanoTime();
+        try {
+            return joinPoint.proceed();
+        } finally {
+            meters.latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            meters.roundTrips.record(JdbcRoundTrips.get() - roundTrips);
+            meters.rowsRead.record(JdbcRoundTrips.getRowsRead() - rowsRead);
+            meters.rowsWritten.record(JdbcRoundTrips.getRowsWritten() - rowsWritten);
+            meters.connectionWait.record(JdbcRoundTrips.getConnectionWaitNanos() - connectionWait, TimeUnit.NANOSECONDS);
+
+            Map<String, Integer> storageCalls = serviceCall.get();
+            if (storageCalls != null && isSingleLookup((MethodSignature) joinPoint.getSignature())) {
+                storageCalls.merge(key, 1, Integer::sum);
+            }
+        }
+    }
+
+    // N+1 — это поиск одной сущности в цикле: findById, findLike и подобные методы без коллекций в аргументах
+    // и в ответе. Пакетные методы (findByIds, addAll, applyLikes) вызываются по разу на пакет, и серия таких
+    // вызовов — штатное деление большого списка, а не N+1.
+    private static boolean isSingleLookup(MethodSignature signature) {
+        if (!signature.getName().startsWith("find")
+                || Collection.class.isAssignableFrom(signature.getReturnType())
+                || Map.class.isAssignableFrom(signature.getReturnType())) {
+            return false;
+        }
+        return Arrays.stream(signature.getParameterTypes())
+                .noneMatch(type -> Collection.class.isAssignableFrom(type) || type.isArray());
+    }
+
+    // Вложенные вызовы сервисов (FilmService -> UserService) считаются частью внешнего вызова.
+    @Around("execution(public * ru.yandex.practicum.filmorate.service.*Service.*(..))")
+    public Object measureServiceCall(ProceedingJoinPoint joinPoint) throws Throwable {
+        if (serviceCall.get() != null) {
+            return joinPoint.proceed();
+        }
+
+        String service = joinPoint.getTarget().getClass().getSimpleName();
+        String method = joinPoint.getSignature().getName();
+        ServiceMeters meters = serviceMeters.computeIfAbsent(
+                service + "." + method, x -> new ServiceMeters(registry, service, method));
+
+        Map<String, Integer> storageCalls = new HashMap<>();
+        serviceCall.set(storageCalls);
+        long roundTrips = JdbcRoundTrips.get();
+        try {
+            return joinPoint.proceed();
+        } finally {
+            serviceCall.remove();
+            meters.roundTrips.record(JdbcRoundTrips.get() - roundTrips);
+
+            storageCalls.forEach((storageMethod, calls) -> {
+                if (calls > nPlusOneThreshold) {
+                    log.warn("Похоже на N+1: {}.{} вызвал {} {} раз", service, method, storageMethod, calls);
+                    Counter.builder("filmorate.service.n_plus_one")
+                            .description("Вызовы сервиса, где поиск одной сущности повторён больше порога")
+                            .tag("service", service)
+                            .tag("method", method)
+                            .tag("storage_method", storageMethod)
+                            .register(registry)
+                            .increment();
+                }
+            });
+        }
+    }
+
+    private static class StorageMeters {
+        private final Timer latency;
+        private final DistributionSummary roundTrips;
+        private final DistributionSummary rowsRead;
+        private final DistributionSummary rowsWritten;
+        private final Timer connectionWait;
+
+        private StorageMeters(MeterRegistry registry, String storage, String method) {
+            this.latency = Timer.builder("filmorate.storage.latency")
+                    .tag("storage", storage)
+                    .tag("method", method)
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .publishPercentileHistogram()
+                    .register(registry);
+            this.roundTrips = summary(registry, "filmorate.storage.round_trips", storage, method);
+            this.rowsRead = summary(registry, "filmorate.storage.rows.read", storage, method);
+            this.rowsWritten = summary(registry, "filmorate.storage.rows.written", storage, method);
+            this.connectionWait = Timer.builder("filmorate.storage.connection.wait")
+                    .tag("storage", storage)
+                    .tag("method", method)
+                    .register(registry);
+        }
+
+        private static DistributionSummary summary(MeterRegistry registry, String name, String storage, String method) {
+            return DistributionSummary.builder(name)
+                    .tag("storage", storage)
+                    .tag("method", method)
+                    .register(registry);
+        }
+    }
+
+    private static class ServiceMeters {
+        private final DistributionSummary roundTrips;
+
+        private ServiceMeters(MeterRegistry registry, String service, String method) {
+            this.roundTrips = DistributionSummary.builder("filmorate.service.round_trips")
+                    .tag("service", service)
+                    .tag("method", method)
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+@Getter
+@AllArgsConstructor
+public enum FilmField implements ProjectedField {
+    ID("id", "id"),
+    NAME("name", "name"),
+    DESCRIPTION("description", "description"),
+    RELEASE_DATE("releaseDate", "release_date"),
+    DURATION("duration", "duration"),
+    MPA("mpa", "rating_id"),
+    LIKES("likes", null),
+    GENRES("genres", null);
+
+    public static final Set<FilmField> ALL = Collections.unmodifiableSet(EnumSet.allOf(FilmField.class));
+
+    private final String property;
+    private final String column;
+}
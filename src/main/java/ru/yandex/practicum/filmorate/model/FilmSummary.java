@@ -0,0 +1,38 @@
+package ru.yandex.practicum.filmorate.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.LocalDate;
+import java.util.Set;
+
+// Фильм без списка лайков: вместо него число лайков и, если передан зритель, отметка его лайка.
+@Data
+@AllArgsConstructor
+public class FilmSummary {
+    private Long id;
+    private String name;
+    private String description;
+    private LocalDate releaseDate;
+    private long duration;
+    private Mpa mpa;
+    private Set<Genre> genres;
+    private long likeCount;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean viewerLiked;
+
+    public static FilmSummary of(Film film, long likeCount, Boolean viewerLiked) {
+        return new FilmSummary(
+                film.getId(),
+                film.getName(),
+                film.getDescription(),
+                film.getReleaseDate(),
+                film.getDuration(),
+                film.getMpa(),
+                film.getGenres(),
+                likeCount,
+                viewerLiked);
+    }
+}
@@ -0,0 +1,419 @@
+package ru.yandex.practicum.filmorate.model;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Отсортированные id лежат блоками по CHUNK значений. Вставка и удаление в середине сдвигают не больше
+// одного блока, а при переполнении блок делится пополам. Возрастающие id дописываются в конец последнего
+// блока, и заполненные блоки остаются плотными.
+// Копия делит блоки с исходным множеством и копирует только таблицу ссылок; блок, общий с другим
+// множеством, копируется при первой записи в него. Замороженное множество не меняется, и его можно
+// отдавать нескольким читателям без копирования.
+public class IdSet extends AbstractSet<Long> {
+    private static final int CHUNK = 1024;
+    private static final int MIN_CHUNK_CAPACITY = 4;
+
+    private long[][] chunks;
+    private int[] sizes;
+    private boolean[] owned;
+    private int chunkCount;
+    private int size;
+    private int modCount;
+    private boolean frozen;
+
+    public IdSet() {
+        this(0);
+    }
+
+    public IdSet(int capacity) {
+        int chunkCapacity = Math.max(1, (capacity + CHUNK - 1) / CHUNK);
+        this.chunks = new long[chunkCapacity][];
+        this.sizes = new int[chunkCapacity];
+        this.owned = new boolean[chunkCapacity];
+    }
+
+    public IdSet(Collection<Long> source) {
+        if (source instanceof IdSet) {
+            IdSet other = (IdSet) source;
+            int capacity = Math.max(1, other.chunkCount);
+            this.chunks = Arrays.copyOf(other.chunks, capacity);
+            this.sizes = Arrays.copyOf(other.sizes, capacity);
+            this.owned = new boolean[capacity];
+            this.chunkCount = other.chunkCount;
+            this.size = other.size;
+            if (!other.frozen) {
+                Arrays.fill(other.owned, 0, other.chunkCount, false);
+            }
+            return;
+        }
+
+        long[] sorted = new long[source.size()];
+        int count = 0;
+        for (Long id : source) {
+            sorted[count++] = id;
+        }
+        Arrays.sort(sorted, 0, count);
+        int unique = dedupe(sorted, count);
+
+        int chunkCapacity = Math.max(1, (unique + CHUNK - 1) / CHUNK);
+        this.chunks = new long[chunkCapacity][];
+        this.sizes = new int[chunkCapacity];
+        this.owned = new boolean[chunkCapacity];
+        for (int from = 0; from < unique; from += CHUNK) {
+            int length = Math.min(CHUNK, unique - from);
+            chunks[chunkCount] = Arrays.copyOfRange(sorted, from, from + length);
+            sizes[chunkCount] = length;
+            owned[chunkCount] = true;
+            chunkCount++;
+        }
+        this.size = unique;
+    }
+
+    public static IdSet of(long... ids) {
+        IdSet set = new IdSet(ids.length);
+        for (long id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+
+    // После заморозки любая запись бросает UnsupportedOperationException.
+    public IdSet freeze() {
+        if (!frozen) {
+            Arrays.fill(owned, 0, chunkCount, false);
+            frozen = true;
+        }
+        return this;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Long && contains((long) (Long) o);
+    }
+
+    public boolean contains(long id) {
+        int chunk = chunkFor(id);
+        return chunk < chunkCount && Arrays.binarySearch(chunks[chunk], 0, sizes[chunk], id) >= 0;
+    }
+
+    @Override
+    public boolean add(Long id) {
+        return add((long) id);
+    }
+
+    public boolean add(long id) {
+        checkWritable();
+        if (chunkCount == 0) {
+            insertChunk(0, new long[MIN_CHUNK_CAPACITY]);
+            chunks[0][0] = id;
+            sizes[0] = 1;
+            size++;
+            modCount++;
+            return true;
+        }
+
+        int tail = chunkCount - 1;
+        if (owned[tail] && sizes[tail] < chunks[tail].length && chunks[tail][sizes[tail] - 1] < id) {
+            chunks[tail][sizes[tail]++] = id;
+            size++;
+            modCount++;
+            return true;
+        }
+
+        int chunk = Math.min(chunkFor(id), tail);
+        int position = Arrays.binarySearch(chunks[chunk], 0, sizes[chunk], id);
+        if (position >= 0) {
+            return false;
+        }
+
+        int insertAt = -position - 1;
+        if (sizes[chunk] == CHUNK) {
+            if (chunk == chunkCount - 1 && insertAt == CHUNK) {
+                // Дописывание в конец начинает новый блок сразу полной ёмкости, а не делит заполненный.
+                insertChunk(chunkCount, new long[CHUNK]);
+                chunk = chunkCount - 1;
+                insertAt = 0;
+            } else {
+                split(chunk);
+                if (insertAt > sizes[chunk]) {
+                    insertAt -= sizes[chunk];
+                    chunk++;
+                }
+            }
+        }
+
+        long[] target = writableChunk(chunk, sizes[chunk] + 1);
+        System.arraycopy(target, insertAt, target, insertAt + 1, sizes[chunk] - insertAt);
+        target[insertAt] = id;
+        sizes[chunk]++;
+        size++;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return o instanceof Long && remove((long) (Long) o);
+    }
+
+    public boolean remove(long id) {
+        checkWritable();
+        int chunk = chunkFor(id);
+        if (chunk == chunkCount) {
+            return false;
+        }
+        int position = Arrays.binarySearch(chunks[chunk], 0, sizes[chunk], id);
+        if (position < 0) {
+            return false;
+        }
+
+        if (sizes[chunk] == 1) {
+            removeChunk(chunk);
+        } else {
+            long[] target = writableChunk(chunk, sizes[chunk]);
+            System.arraycopy(target, position + 1, target, position, sizes[chunk] - position - 1);
+            sizes[chunk]--;
+        }
+        size--;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        checkWritable();
+        Arrays.fill(chunks, 0, chunkCount, null);
+        chunkCount = 0;
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public Iterator<Long> iterator() {
+        return new Iterator<>() {
+            private int chunk;
+            private int position;
+            private long last;
+            private boolean hasLast;
+            private int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                return chunk < chunkCount && position < sizes[chunk];
+            }
+
+            @Override
+            public Long next() {
+                if (expectedModCount != modCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                last = chunks[chunk][position++];
+                hasLast = true;
+                if (position == sizes[chunk]) {
+                    chunk++;
+                    position = 0;
+                }
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (!hasLast) {
+                    throw new IllegalStateException();
+                }
+                if (expectedModCount != modCount) {
+                    throw new ConcurrentModificationException();
+                }
+                IdSet.this.remove(last);
+                hasLast = false;
+                expectedModCount = modCount;
+
+                // Блоки после удаления могли сдвинуться: продолжаем с первого id больше удалённого.
+                chunk = chunkFor(last);
+                position = chunk < chunkCount ? -Arrays.binarySearch(chunks[chunk], 0, sizes[chunk], last) - 1 : 0;
+            }
+        };
+    }
+
+    public long[] toLongArray() {
+        long[] result = new long[size];
+        int offset = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            System.arraycopy(chunks[i], 0, result, offset, sizes[i]);
+            offset += sizes[i];
+        }
+        return result;
+    }
+
+    public IdSet union(IdSet other) {
+        long[] left = toLongArray();
+        long[] right = other.toLongArray();
+        long[] merged = new long[left.length + right.length];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (i < left.length && j < right.length) {
+            if (left[i] < right[j]) {
+                merged[count++] = left[i++];
+            } else if (left[i] > right[j]) {
+                merged[count++] = right[j++];
+            } else {
+                merged[count++] = left[i++];
+                j++;
+            }
+        }
+        while (i < left.length) {
+            merged[count++] = left[i++];
+        }
+        while (j < right.length) {
+            merged[count++] = right[j++];
+        }
+        return fromSorted(merged, count);
+    }
+
+    public IdSet intersection(IdSet other) {
+        IdSet smaller = size <= other.size ? this : other;
+        IdSet larger = smaller == this ? other : this;
+        long[] candidates = smaller.toLongArray();
+        long[] common = new long[candidates.length];
+        int count = 0;
+
+        if ((long) smaller.size * 32 < larger.size) {
+            for (long id : candidates) {
+                if (larger.contains(id)) {
+                    common[count++] = id;
+                }
+            }
+            return fromSorted(common, count);
+        }
+
+        long[] others = larger.toLongArray();
+        int i = 0;
+        int j = 0;
+        while (i < candidates.length && j < others.length) {
+            if (candidates[i] < others[j]) {
+                i++;
+            } else if (candidates[i] > others[j]) {
+                j++;
+            } else {
+                common[count++] = candidates[i];
+                i++;
+                j++;
+            }
+        }
+        return fromSorted(common, count);
+    }
+
+    private static IdSet fromSorted(long[] sorted, int count) {
+        IdSet result = new IdSet(count);
+        for (int from = 0; from < count; from += CHUNK) {
+            int length = Math.min(CHUNK, count - from);
+            result.chunks[result.chunkCount] = Arrays.copyOfRange(sorted, from, from + length);
+            result.sizes[result.chunkCount] = length;
+            result.owned[result.chunkCount] = true;
+            result.chunkCount++;
+        }
+        result.size = count;
+        return result;
+    }
+
+    // Первый блок, последний id которого не меньше искомого; chunkCount, если id больше всех.
+    private int chunkFor(long id) {
+        int low = 0;
+        int high = chunkCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (chunks[middle][sizes[middle] - 1] < id) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    // Общий с другим множеством блок копируется, свой растёт вдвое, но не больше CHUNK.
+    private long[] writableChunk(int chunk, int capacity) {
+        long[] current = chunks[chunk];
+        if (owned[chunk] && current.length >= capacity) {
+            return current;
+        }
+
+        int length = Math.max(capacity, owned[chunk] ? current.length * 2 : current.length);
+        chunks[chunk] = Arrays.copyOf(current, Math.min(CHUNK, Math.max(MIN_CHUNK_CAPACITY, length)));
+        owned[chunk] = true;
+        return chunks[chunk];
+    }
+
+    private void split(int chunk) {
+        long[] full = chunks[chunk];
+        int half = sizes[chunk] / 2;
+        long[] head = Arrays.copyOf(full, CHUNK);
+        long[] tail = Arrays.copyOfRange(full, half, half + CHUNK);
+        chunks[chunk] = head;
+        sizes[chunk] = half;
+        owned[chunk] = true;
+        insertChunk(chunk + 1, tail);
+        sizes[chunk + 1] = CHUNK - half;
+    }
+
+    private void insertChunk(int at, long[] chunk) {
+        if (chunkCount == chunks.length) {
+            int capacity = chunks.length + (chunks.length >> 1) + 1;
+            chunks = Arrays.copyOf(chunks, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            owned = Arrays.copyOf(owned, capacity);
+        }
+        System.arraycopy(chunks, at, chunks, at + 1, chunkCount - at);
+        System.arraycopy(sizes, at, sizes, at + 1, chunkCount - at);
+        System.arraycopy(owned, at, owned, at + 1, chunkCount - at);
+        chunks[at] = chunk;
+        sizes[at] = 0;
+        owned[at] = true;
+        chunkCount++;
+    }
+
+    private void removeChunk(int at) {
+        System.arraycopy(chunks, at + 1, chunks, at, chunkCount - at - 1);
+        System.arraycopy(sizes, at + 1, sizes, at, chunkCount - at - 1);
+        System.arraycopy(owned, at + 1, owned, at, chunkCount - at - 1);
+        chunkCount--;
+        chunks[chunkCount] = null;
+    }
+
+    private void checkWritable() {
+        if (frozen) {
+            throw new UnsupportedOperationException("Множество id заморожено");
+        }
+    }
+
+    private static int dedupe(long[] sorted, int count) {
+        if (count == 0) {
+            return 0;
+        }
+
+        int unique = 1;
+        for (int i = 1; i < count; i++) {
+            if (sorted[i] != sorted[unique - 1]) {
+                sorted[unique++] = sorted[i];
+            }
+        }
+        return unique;
+    }
+}
@@ -0,0 +1,15 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class LikeBatchAck {
+    private int batch;
+    private int applied;
+    private int unknownFilm;
+    private int unknownUser;
+    private int duplicate;
+    private int invalid;
+}
@@ -0,0 +1,37 @@
+package ru.yandex.practicum.filmorate.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LikeEvent {
+    private Long filmId;
+    private Long userId;
+    private Op op;
+
+    public enum Op {
+        LIKE,
+        UNLIKE;
+
+        // Неизвестная операция превращается в null: событие отклоняется, а поток продолжает читаться.
+        @JsonCreator
+        public static Op of(String value) {
+            for (Op op : values()) {
+                if (op.name().equalsIgnoreCase(value)) {
+                    return op;
+                }
+            }
+            return null;
+        }
+
+        @JsonValue
+        public String toJson() {
+            return name().toLowerCase();
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+public class LikeStreamResult {
+    private final List<LikeBatchAck> batches = new ArrayList<>();
+    private long applied;
+    private long rejected;
+    private String error;
+
+    public void add(LikeBatchAck ack) {
+        batches.add(ack);
+        applied += ack.getApplied();
+        rejected += ack.getUnknownFilm() + ack.getUnknownUser() + ack.getDuplicate() + ack.getInvalid();
+    }
+}
@@ -0,0 +1,10 @@
+package ru.yandex.practicum.filmorate.model;
+
+// Поле модели, которое можно запросить через ?fields=. Колонка null означает дочернюю таблицу.
+public interface ProjectedField {
+    String FILTER = "projection";
+
+    String getProperty();
+
+    String getColumn();
+}
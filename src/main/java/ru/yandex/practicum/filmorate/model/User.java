@@ -1,5 +1,8 @@
 package ru.yandex.practicum.filmorate.model;
 
+import com.fasterxml.jackson.annotation.JsonSetter;
+import com.fasterxml.jackson.annotation.Nulls;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import ru.yandex.practicum.filmorate.annotation.NoWhiteSpaces;
@@ -28,5 +31,7 @@ public class User {
     @PastOrPresent(message = "birthday не может быть в будущем")
     private LocalDate birthday;
 
+    @JsonDeserialize(as = IdSet.class)
+    @JsonSetter(contentNulls = Nulls.FAIL)
     private Set<Long> friends;
 }
@@ -0,0 +1,24 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+@Getter
+@AllArgsConstructor
+public enum UserField implements ProjectedField {
+    ID("id", "id"),
+    EMAIL("email", "email"),
+    LOGIN("login", "login"),
+    NAME("name", "name"),
+    BIRTHDAY("birthday", "birthday"),
+    FRIENDS("friends", null);
+
+    public static final Set<UserField> ALL = Collections.unmodifiableSet(EnumSet.allOf(UserField.class));
+
+    private final String property;
+    private final String column;
+}
@@ -0,0 +1,67 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.DataAccessException;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.model.BatchItemError;
+import ru.yandex.practicum.filmorate.model.BatchResult;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+@Slf4j
+class BatchImport<T> {
+    private final List<T> accepted = new ArrayList<>();
+    private final List<Integer> acceptedIndexes = new ArrayList<>();
+    private final List<BatchItemError> errors = new ArrayList<>();
+
+    void accept(int index, T item) {
+        accepted.add(item);
+        acceptedIndexes.add(index);
+    }
+
+    void reject(int index, String description) {
+        errors.add(new BatchItemError(index, description));
+    }
+
+    BatchResult<T> insert(
+            TransactionTemplate transactionTemplate,
+            int chunkSize,
+            Function<List<T>, List<T>> insertChunk,
+            Function<T, Long> idOf,
+            String rejectedDescription) {
+        List<T> created = new ArrayList<>(accepted.size());
+
+        for (int from = 0; from < accepted.size(); from += chunkSize) {
+            int to = Math.min(from + chunkSize, accepted.size());
+            List<T> chunk = accepted.subList(from, to);
+
+            List<T> inserted;
+            try {
+                inserted = transactionTemplate.execute(status -> insertChunk.apply(chunk));
+            } catch (DataAccessException | TransactionException e) {
+                String description = NestedExceptionUtils.getMostSpecificCause(e).getMessage();
+                log.error("Пакет записей [{}, {}) не сохранён: {}", from, to, description);
+                acceptedIndexes.subList(from, to).forEach(index -> reject(index, description));
+                continue;
+            }
+
+            // Хранилище может вернуть свои копии записей, id берутся из них.
+            for (int i = from; i < to; i++) {
+                T item = inserted.get(i - from);
+                if (idOf.apply(item) == null) {
+                    reject(acceptedIndexes.get(i), rejectedDescription);
+                } else {
+                    created.add(item);
+                }
+            }
+        }
+
+        errors.sort(Comparator.comparingInt(BatchItemError::getIndex));
+        return new BatchResult<>(created, errors);
+    }
+}
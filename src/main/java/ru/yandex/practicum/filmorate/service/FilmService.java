@@ -3,16 +3,36 @@ package ru.yandex.practicum.filmorate.service;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.yandex.practicum.filmorate.exception.CustomExceptions;
+import ru.yandex.practicum.filmorate.index.EntityVersions;
+import ru.yandex.practicum.filmorate.index.PopularFilmsIndex;
+import ru.yandex.practicum.filmorate.index.SimilarFilmsIndex;
+import ru.yandex.practicum.filmorate.model.BatchResult;
+import ru.yandex.practicum.filmorate.model.CursorPage;
 import ru.yandex.practicum.filmorate.model.Film;
-import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.FilmField;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
+import ru.yandex.practicum.filmorate.model.IdSet;
+import ru.yandex.practicum.filmorate.model.LikeEvent;
 import ru.yandex.practicum.filmorate.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.util.JdbcRoundTrips;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
@@ -20,11 +40,42 @@ import java.util.stream.Collectors;
 public class FilmService {
     private final FilmStorage filmStorage;
     private final UserService userService;
+    private final PopularFilmsIndex popularFilmsIndex;
+    private final SimilarFilmsIndex similarFilmsIndex;
+    private final EntityVersions entityVersions;
+    private final GenreService genreService;
+    private final MpaService mpaService;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean popularConsistencyCheck;
+    private final long popularMaxCount;
+    private final int batchChunkSize;
+    private final boolean deferredLikes;
 
     @Autowired
-    public FilmService(@Qualifier("filmDBStorage") FilmStorage filmStorage, UserService userService) {
+    public FilmService(
+            @Qualifier("filmStorage") FilmStorage filmStorage,
+            UserService userService,
+            PopularFilmsIndex popularFilmsIndex,
+            SimilarFilmsIndex similarFilmsIndex,
+            EntityVersions entityVersions,
+            GenreService genreService,
+            MpaService mpaService,
+            TransactionTemplate transactionTemplate,
+            @Value("${filmorate.popular.consistency-check:false}") boolean popularConsistencyCheck,
+            @Value("${filmorate.popular.max-count:10000}") long popularMaxCount,
+            @Value("${filmorate.batch.chunk-size:500}") int batchChunkSize) {
         this.filmStorage = filmStorage;
         this.userService = userService;
+        this.popularFilmsIndex = popularFilmsIndex;
+        this.similarFilmsIndex = similarFilmsIndex;
+        this.entityVersions = entityVersions;
+        this.genreService = genreService;
+        this.mpaService = mpaService;
+        this.transactionTemplate = transactionTemplate;
+        this.popularConsistencyCheck = popularConsistencyCheck;
+        this.popularMaxCount = popularMaxCount;
+        this.batchChunkSize = batchChunkSize;
+        this.deferredLikes = filmStorage.addLikesListener(this::likesWritten);
     }
 
     public List<Film> findAll() {
@@ -34,56 +85,199 @@ public class FilmService {
         return films;
     }
 
+    public long forEachFilm(Set<FilmField> fields, Consumer<Film> consumer) {
+        long[] count = {0};
+        filmStorage.forEachFilm(fields, film -> {
+            consumer.accept(film);
+            count[0]++;
+        });
+        log.info("Отдали все фильмы потоком. Общее количество: {}", count[0]);
+
+        return count[0];
+    }
+
+    public CursorPage<Film> findPage(Long after, int limit, Set<FilmField> fields) {
+        List<Film> films = filmStorage.findPage(after, limit, fields);
+        Long nextCursor = films.size() < limit ? null : films.get(films.size() - 1).getId();
+        log.info("Возвращаем страницу фильмов после id={}. Количество: {}", after, films.size());
+
+        return new CursorPage<>(films, nextCursor);
+    }
+
     public Film add(Film film) {
         if (film.getLikes() == null) {
-            film.setLikes(new HashSet<>());
+            film.setLikes(new IdSet());
         }
 
         if (film.getGenres() == null) {
             film.setGenres(new HashSet<>());
         }
 
-        filmStorage.add(film);
-        log.info("Сохраняем новый фильм {}", film);
+        Film saved = filmStorage.add(film);
+        popularFilmsIndex.setLikes(saved.getId(), 0);
+        entityVersions.filmChanged(saved.getId());
+        log.info("Сохраняем новый фильм {}", saved);
+
+        return saved;
+    }
+
+    public BatchResult<Film> addAll(List<Film> films) {
+        BatchImport<Film> batch = new BatchImport<>();
+        Set<List<Object>> uniqueKeys = new HashSet<>();
+
+        for (int i = 0; i < films.size(); i++) {
+            Film film = films.get(i);
+            try {
+                if (film.getMpa() != null) {
+                    mpaService.findById(film.getMpa().getId());
+                }
+                if (film.getGenres() != null) {
+                    film.getGenres().forEach(genre -> genreService.findById(genre.getId()));
+                }
+            } catch (CustomExceptions.MpaDoesNotExistsException | CustomExceptions.GenreDoesNotExistsException e) {
+                batch.reject(i, e.getMessage());
+                continue;
+            }
+
+            if (!uniqueKeys.add(Arrays.asList(film.getName(), film.getReleaseDate()))) {
+                batch.reject(i, String.format("Фильм \"%s\" повторяется в запросе", film.getName()));
+                continue;
+            }
+
+            film.setLikes(new IdSet());
+            if (film.getGenres() == null) {
+                film.setGenres(new HashSet<>());
+            }
+            batch.accept(i, film);
+        }
+
+        BatchResult<Film> result = batch.insert(
+                transactionTemplate,
+                batchChunkSize,
+                filmStorage::addAll,
+                Film::getId,
+                "Фильм с таким названием и датой выхода уже существует");
+        result.getCreated().forEach(film -> {
+            popularFilmsIndex.setLikes(film.getId(), 0);
+            entityVersions.filmChanged(film.getId());
+        });
+        log.info(
+                "Пакетно сохранено фильмов: {}, отклонено: {}",
+                result.getCreated().size(),
+                result.getErrors().size());
 
-        return film;
+        return result;
     }
 
     public Film update(Film film) {
-        if (filmStorage.findById(film.getId()) == null) {
+        Film existing = filmStorage.findById(film.getId());
+        if (existing == null) {
             log.error("Фильм с id={} не существует", film.getId());
             throw new CustomExceptions.FilmDoesNotExistsException(
                     String.format("Фильм с id=%s не существует", film.getId()));
         }
 
         if (film.getLikes() == null) {
-            film.setLikes(new HashSet<>());
+            film.setLikes(new IdSet());
         }
 
-        filmStorage.update(film);
-        log.info("Обновляем фильм {}", film);
+        Film updated = filmStorage.update(film);
+        popularFilmsIndex.setLikes(updated.getId(), updated.getLikes().size());
+        similarFilmsIndex.applyLikes(likesDiff(updated.getId(), existing.getLikes(), updated.getLikes()));
+        entityVersions.filmChanged(updated.getId());
+        log.info("Обновляем фильм {}", updated);
 
-        return film;
+        return updated;
+    }
+
+    public void remove(Long id) {
+        Film film = getFilm(id);
+        filmStorage.remove(id);
+        popularFilmsIndex.removeFilm(id);
+        similarFilmsIndex.removeFilm(id, film.getLikes());
+        entityVersions.filmRemoved(id);
+
+        log.info("Фильм id={} удалён", id);
+    }
+
+    // PUT заменяет лайки целиком; индекс похожих получает только разницу. В режиме отложенной записи
+    // update сначала сбрасывает буфер, и прочитанные до него лайки уже попали в индекс через likesWritten.
+    private static List<LikeEvent> likesDiff(long filmId, Set<Long> before, Set<Long> after) {
+        List<LikeEvent> events = new ArrayList<>();
+        for (long userId : after) {
+            if (!before.contains(userId)) {
+                events.add(new LikeEvent(filmId, userId, LikeEvent.Op.LIKE));
+            }
+        }
+        for (long userId : before) {
+            if (!after.contains(userId)) {
+                events.add(new LikeEvent(filmId, userId, LikeEvent.Op.UNLIKE));
+            }
+        }
+        return events;
     }
 
     public Film findById(Long id) {
         return getFilm(id);
     }
 
+    public FilmSummary findSummaryById(Long id, Long viewerId) {
+        List<FilmSummary> summaries = filmStorage.findSummaries(List.of(id), viewerId);
+        if (summaries.isEmpty()) {
+            throw new CustomExceptions.FilmDoesNotExistsException(String.format("Фильм с id=%s не существует", id));
+        }
+
+        return summaries.get(0);
+    }
+
+    public CursorPage<Long> findLikes(Long filmId, Long after, int limit) {
+        List<Long> likes = filmStorage.findLikes(filmId, after, limit);
+        if (likes.isEmpty()) {
+            getFilm(filmId);
+        }
+
+        Long nextCursor = likes.size() < limit ? null : likes.get(likes.size() - 1);
+        log.info("Возвращаем лайки фильма id={} после id={}. Количество: {}", filmId, after, likes.size());
+
+        return new CursorPage<>(likes, nextCursor);
+    }
+
     public void addLike(Long filmId, Long userId) {
-        User user = userService.getUser(userId);
-        Film film = getFilm(filmId);
+        long roundTrips = JdbcRoundTrips.get();
 
-        film.getLikes().add(userId);
+        boolean added;
+        try {
+            added = filmStorage.addLike(filmId, userId);
+        } catch (DataIntegrityViolationException e) {
+            userService.getUser(userId);
+            getFilm(filmId);
+            throw e;
+        }
 
-        update(film);
+        if (added) {
+            if (!deferredLikes) {
+                popularFilmsIndex.incrementLikes(filmId);
+                similarFilmsIndex.addLike(filmId, userId);
+            }
+            entityVersions.filmChanged(filmId);
+        }
 
         log.info(
-                "Пользователю {}(id = {}) нравится фильм {}(id = {})",
-                user.getName(),
-                user.getId(),
-                film.getName(),
-                film.getId());
+                "Пользователю id={} нравится фильм id={}. Запросов к БД: {}",
+                userId,
+                filmId,
+                JdbcRoundTrips.get() - roundTrips);
+    }
+
+    // Отложенные лайки попадают в индексы после записи пакета: по одной блокировке на индекс за пакет,
+    // а не по блокировке на каждый лайк.
+    private void likesWritten(List<LikeEvent> events) {
+        Map<Long, Long> deltas = new HashMap<>();
+        events.forEach(event ->
+                deltas.merge(event.getFilmId(), event.getOp() == LikeEvent.Op.LIKE ? 1L : -1L, Long::sum));
+        popularFilmsIndex.changeLikes(deltas);
+        similarFilmsIndex.applyLikes(events);
+        deltas.keySet().forEach(entityVersions::filmChanged);
     }
 
     private Film getFilm(Long filmId) {
@@ -93,30 +287,100 @@ public class FilmService {
     }
 
     public void deleteLike(Long filmId, Long userId) {
-        User user = userService.getUser(userId);
-        Film film = getFilm(filmId);
+        long roundTrips = JdbcRoundTrips.get();
 
-        film.getLikes().remove(userId);
-
-        update(film);
+        if (filmStorage.removeLike(filmId, userId)) {
+            if (!deferredLikes) {
+                popularFilmsIndex.decrementLikes(filmId);
+                similarFilmsIndex.removeLike(filmId, userId);
+            }
+            entityVersions.filmChanged(filmId);
+        } else {
+            userService.getUser(userId);
+            getFilm(filmId);
+        }
 
         log.info(
-                "Пользователю {}(id = {}) больше не нравится фильм {}(id = {})",
-                user.getName(),
-                user.getId(),
-                film.getName(),
-                film.getId());
+                "Пользователю id={} больше не нравится фильм id={}. Запросов к БД: {}",
+                userId,
+                filmId,
+                JdbcRoundTrips.get() - roundTrips);
     }
 
     public List<Film> getPopular(String filmsCount) {
-        long count = Long.parseLong(filmsCount);
+        long count = popularCount(filmsCount);
 
-        Comparator<Film> comparator =
-                Comparator.comparing(x -> x.getLikes().size(), Comparator.reverseOrder());
+        // Фильм, удалённый в обход сервиса, не попадёт в ответ: его id уходит из индекса, и топ добирается заново.
+        List<Long> top = popularFilmsIndex.getTop(count);
+        List<Film> popular = findInOrder(top);
+        while (popular.size() < top.size()) {
+            Set<Long> found = popular.stream().map(Film::getId).collect(Collectors.toSet());
+            top.stream().filter(id -> !found.contains(id)).forEach(popularFilmsIndex::removeFilm);
+            top = popularFilmsIndex.getTop(count);
+            popular = findInOrder(top);
+        }
+
+        if (popularConsistencyCheck) {
+            checkPopularConsistency(popular, count);
+        }
 
-        return filmStorage.findAll().stream()
-                .sorted(comparator)
+        return popular;
+    }
+
+    // Порядок задаёт индекс популярных, хранилище возвращает сводки по возрастанию id.
+    public List<FilmSummary> getPopularSummaries(String filmsCount, Long viewerId) {
+        List<Long> top = popularFilmsIndex.getTop(popularCount(filmsCount));
+        Map<Long, FilmSummary> summaries = filmStorage.findSummaries(top, viewerId).stream()
+                .collect(Collectors.toMap(FilmSummary::getId, Function.identity()));
+
+        return top.stream()
+                .map(summaries::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    // count приходит из запроса как есть; без верхней границы ?count=9223372036854775807 вытаскивает весь индекс.
+    // Сами id хранилища читают пакетами по IDS_CHUNK_SIZE.
+    private long popularCount(String filmsCount) {
+        return Math.max(0, Math.min(Long.parseLong(filmsCount), popularMaxCount));
+    }
+
+    public List<Film> getSimilar(Long id, int limit) {
+        getFilm(id);
+
+        List<Film> similar = findInOrder(similarFilmsIndex.getSimilar(id, limit));
+        log.info("Возвращаем фильмы, похожие на фильм id={}. Количество: {}", id, similar.size());
+
+        return similar;
+    }
+
+    // Фильмы читаются одним запросом, порядок задаёт индекс.
+    private List<Film> findInOrder(List<Long> ids) {
+        Map<Long, Film> films = filmStorage.findByIds(ids).stream()
+                .collect(Collectors.toMap(Film::getId, Function.identity()));
+
+        return ids.stream()
+                .map(films::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    // Эталон — полный перебор фильмов с сортировкой по числу лайков, как до появления индекса: findPopular
+    // читает like_count, который сам может разойтись с таблицей лайков.
+    private void checkPopularConsistency(List<Film> popular, long count) {
+        List<Integer> indexedLikes =
+                popular.stream().map(film -> film.getLikes().size()).collect(Collectors.toList());
+        List<Integer> storedLikes = filmStorage.findAll().stream()
+                .map(film -> film.getLikes().size())
+                .sorted(Comparator.reverseOrder())
                 .limit(count)
                 .collect(Collectors.toList());
+
+        if (!indexedLikes.equals(storedLikes)) {
+            log.warn(
+                    "Индекс популярных фильмов расходится с хранилищем: индекс {}, хранилище {}",
+                    indexedLikes,
+                    storedLikes);
+        }
     }
 }
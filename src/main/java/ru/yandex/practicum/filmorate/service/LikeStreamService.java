@@ -0,0 +1,164 @@
+package ru.yandex.practicum.filmorate.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.index.EntityVersions;
+import ru.yandex.practicum.filmorate.index.PopularFilmsIndex;
+import ru.yandex.practicum.filmorate.index.SimilarFilmsIndex;
+import ru.yandex.practicum.filmorate.model.LikeBatchAck;
+import ru.yandex.practicum.filmorate.model.LikeEvent;
+import ru.yandex.practicum.filmorate.model.LikeStreamResult;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+
+@Service
+@Slf4j
+public class LikeStreamService {
+    private final FilmStorage filmStorage;
+    private final UserService userService;
+    private final PopularFilmsIndex popularFilmsIndex;
+    private final SimilarFilmsIndex similarFilmsIndex;
+    private final EntityVersions entityVersions;
+    private final ObjectReader eventReader;
+    private final int batchSize;
+    private final Semaphore batchPermits;
+
+    @Autowired
+    public LikeStreamService(
+            @Qualifier("filmStorage") FilmStorage filmStorage,
+            UserService userService,
+            PopularFilmsIndex popularFilmsIndex,
+            SimilarFilmsIndex similarFilmsIndex,
+            EntityVersions entityVersions,
+            ObjectMapper objectMapper,
+            @Value("${filmorate.like-stream.batch-size:1000}") int batchSize,
+            @Value("${filmorate.like-stream.max-concurrent-batches:4}") int maxConcurrentBatches) {
+        this.filmStorage = filmStorage;
+        this.userService = userService;
+        this.popularFilmsIndex = popularFilmsIndex;
+        this.similarFilmsIndex = similarFilmsIndex;
+        this.entityVersions = entityVersions;
+        this.eventReader = objectMapper.readerFor(LikeEvent.class);
+        this.batchSize = batchSize;
+        this.batchPermits = new Semaphore(maxConcurrentBatches, true);
+    }
+
+    // Тело читается по одному событию, и следующий пакет не читается, пока не записан предыдущий.
+    // Если база не успевает, запрос перестаёт читать сокет, и клиента притормаживает сам TCP.
+    public LikeStreamResult ingest(InputStream body) throws IOException {
+        LikeStreamResult result = new LikeStreamResult();
+        List<LikeEvent> batch = new ArrayList<>(batchSize);
+
+        try (MappingIterator<LikeEvent> events = eventReader.readValues(body)) {
+            while (events.hasNextValue()) {
+                batch.add(nextValue(events));
+                if (batch.size() == batchSize) {
+                    result.add(applyBatch(result.getBatches().size() + 1, batch));
+                    batch.clear();
+                }
+            }
+        } catch (JsonProcessingException e) {
+            log.error("Поток лайков прерван на некорректной строке: {}", e.getOriginalMessage());
+            result.setError(e.getOriginalMessage());
+        }
+
+        if (!batch.isEmpty()) {
+            result.add(applyBatch(result.getBatches().size() + 1, batch));
+        }
+
+        log.info(
+                "Поток лайков обработан. Пакетов: {}, применено: {}, отклонено: {}",
+                result.getBatches().size(),
+                result.getApplied(),
+                result.getRejected());
+
+        return result;
+    }
+
+    // Поле неверного типа портит только своё событие: итератор пропускает остаток объекта и читает дальше.
+    // Такое событие попадает в пакет как null и считается некорректным. Сломанный JSON по-прежнему прерывает поток.
+    private static LikeEvent nextValue(MappingIterator<LikeEvent> events) throws IOException {
+        try {
+            return events.nextValue();
+        } catch (JsonMappingException e) {
+            log.warn("Некорректное событие в потоке лайков: {}", e.getOriginalMessage());
+            return null;
+        }
+    }
+
+    private LikeBatchAck applyBatch(int number, List<LikeEvent> events) {
+        List<LikeEvent> valid = events.stream()
+                .filter(event -> event != null
+                        && event.getFilmId() != null
+                        && event.getUserId() != null
+                        && event.getOp() != null)
+                .collect(Collectors.toList());
+        int invalid = events.size() - valid.size();
+        int unknownFilm = 0;
+        int unknownUser = 0;
+
+        List<LikeEvent> known = new ArrayList<>(valid.size());
+        boolean[] applied;
+
+        batchPermits.acquireUninterruptibly();
+        try {
+            Set<Long> filmIds = filmStorage.findExistingIds(
+                    valid.stream().map(LikeEvent::getFilmId).collect(Collectors.toSet()));
+            Set<Long> userIds = userService.findExistingIds(
+                    valid.stream().map(LikeEvent::getUserId).collect(Collectors.toSet()));
+
+            for (LikeEvent event : valid) {
+                if (!filmIds.contains(event.getFilmId())) {
+                    unknownFilm++;
+                } else if (!userIds.contains(event.getUserId())) {
+                    unknownUser++;
+                } else {
+                    known.add(event);
+                }
+            }
+
+            applied = filmStorage.applyLikes(known);
+        } finally {
+            batchPermits.release();
+        }
+
+        int appliedCount = 0;
+        for (int i = 0; i < known.size(); i++) {
+            if (!applied[i]) {
+                continue;
+            }
+
+            LikeEvent event = known.get(i);
+            if (event.getOp() == LikeEvent.Op.LIKE) {
+                popularFilmsIndex.incrementLikes(event.getFilmId());
+                similarFilmsIndex.addLike(event.getFilmId(), event.getUserId());
+            } else {
+                popularFilmsIndex.decrementLikes(event.getFilmId());
+                similarFilmsIndex.removeLike(event.getFilmId(), event.getUserId());
+            }
+            entityVersions.filmChanged(event.getFilmId());
+            appliedCount++;
+        }
+
+        LikeBatchAck ack = new LikeBatchAck(
+                number, appliedCount, unknownFilm, unknownUser, known.size() - appliedCount, invalid);
+        log.debug("Пакет лайков записан: {}", ack);
+
+        return ack;
+    }
+}
@@ -3,24 +3,64 @@ package ru.yandex.practicum.filmorate.service;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.yandex.practicum.filmorate.exception.CustomExceptions;
+import ru.yandex.practicum.filmorate.index.EntityVersions;
+import ru.yandex.practicum.filmorate.index.FriendGraph;
+import ru.yandex.practicum.filmorate.index.PopularFilmsIndex;
+import ru.yandex.practicum.filmorate.index.SimilarFilmsIndex;
+import ru.yandex.practicum.filmorate.model.BatchResult;
+import ru.yandex.practicum.filmorate.model.CursorPage;
+import ru.yandex.practicum.filmorate.model.IdSet;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserField;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
 import ru.yandex.practicum.filmorate.storage.UserStorage;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 public class UserService {
     private final UserStorage userStorage;
+    private final FilmStorage filmStorage;
+    private final FriendGraph friendGraph;
+    private final PopularFilmsIndex popularFilmsIndex;
+    private final SimilarFilmsIndex similarFilmsIndex;
+    private final EntityVersions entityVersions;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchChunkSize;
 
     @Autowired
-    public UserService(@Qualifier("userDBStorage") UserStorage userStorage) {
+    public UserService(
+            @Qualifier("userStorage") UserStorage userStorage,
+            @Qualifier("filmStorage") FilmStorage filmStorage,
+            FriendGraph friendGraph,
+            PopularFilmsIndex popularFilmsIndex,
+            SimilarFilmsIndex similarFilmsIndex,
+            EntityVersions entityVersions,
+            TransactionTemplate transactionTemplate,
+            @Value("${filmorate.batch.chunk-size:500}") int batchChunkSize) {
         this.userStorage = userStorage;
+        this.filmStorage = filmStorage;
+        this.friendGraph = friendGraph;
+        this.popularFilmsIndex = popularFilmsIndex;
+        this.similarFilmsIndex = similarFilmsIndex;
+        this.entityVersions = entityVersions;
+        this.transactionTemplate = transactionTemplate;
+        this.batchChunkSize = batchChunkSize;
     }
 
     public User add(User user) {
@@ -29,14 +69,50 @@ public class UserService {
         }
 
         if (user.getFriends() == null) {
-            user.setFriends(new HashSet<>());
+            user.setFriends(new IdSet());
         }
 
         user.setLogin(user.getLogin().trim());
 
-        log.info("Сохраняем нового пользователя {}", userStorage.add(user));
+        User saved = userStorage.add(user);
+        log.info("Сохраняем нового пользователя {}", saved);
+        entityVersions.userChanged(saved.getId());
 
-        return user;
+        return saved;
+    }
+
+    public BatchResult<User> addAll(List<User> users) {
+        BatchImport<User> batch = new BatchImport<>();
+        Set<String> emails = new HashSet<>();
+
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            if (!emails.add(user.getEmail())) {
+                batch.reject(i, String.format("Email %s повторяется в запросе", user.getEmail()));
+                continue;
+            }
+
+            if (user.getName() == null || user.getName().isEmpty()) {
+                user.setName(user.getLogin());
+            }
+            user.setFriends(new IdSet());
+            user.setLogin(user.getLogin().trim());
+            batch.accept(i, user);
+        }
+
+        BatchResult<User> result = batch.insert(
+                transactionTemplate,
+                batchChunkSize,
+                userStorage::addAll,
+                User::getId,
+                "Пользователь с таким email уже существует");
+        result.getCreated().forEach(user -> entityVersions.userChanged(user.getId()));
+        log.info(
+                "Пакетно сохранено пользователей: {}, отклонено: {}",
+                result.getCreated().size(),
+                result.getErrors().size());
+
+        return result;
     }
 
     public List<User> findAll() {
@@ -46,55 +122,95 @@ public class UserService {
         return users;
     }
 
+    public long forEachUser(Set<UserField> fields, Consumer<User> consumer) {
+        long[] count = {0};
+        userStorage.forEachUser(fields, user -> {
+            consumer.accept(user);
+            count[0]++;
+        });
+        log.info("Отдали всех пользователей потоком. Общее количество: {}", count[0]);
+
+        return count[0];
+    }
+
+    public CursorPage<User> findPage(Long after, int limit, Set<UserField> fields) {
+        List<User> users = userStorage.findPage(after, limit, fields);
+        Long nextCursor = users.size() < limit ? null : users.get(users.size() - 1).getId();
+        log.info("Возвращаем страницу пользователей после id={}. Количество: {}", after, users.size());
+
+        return new CursorPage<>(users, nextCursor);
+    }
+
     public User update(User user) {
-        if (userStorage.findById(user.getId()) == null) {
+        User existing = userStorage.findById(user.getId());
+        if (existing == null) {
             log.error("Пользователь с id={} не существует", user.getId());
             throw new CustomExceptions.UserDoesNotExistsException(
                     String.format("Пользователя с id=%s не существует", user.getId()));
         }
 
-        if (user.getFriends() == null) {
-            user.setFriends(new HashSet<>());
-        }
-
         log.info("Обновляем данные пользователя с id={}", user.getId());
-        userStorage.update(user);
+        User updated = userStorage.update(user);
+        updated.setFriends(existing.getFriends());
+        entityVersions.userChanged(updated.getId());
 
-        return user;
+        return updated;
     }
 
-    public void addFriend(Long userId, Long friendId) {
-        User user = getUser(userId);
-        User friend = getUser(friendId);
-
-        user.getFriends().add(friendId);
+    // Связи дружбы в базе удаляются каскадом, граф друзей повторяет этот каскад сам. Лайки снимаются
+    // через хранилище фильмов в той же транзакции, чтобы кэш и индексы узнали, какие фильмы их потеряли.
+    public void remove(Long id) {
+        getUser(id);
+        Set<Long> filmIds = transactionTemplate.execute(status -> {
+            Set<Long> unliked = filmStorage.removeUserLikes(id);
+            userStorage.remove(id);
+            return unliked;
+        });
+        filmIds.forEach(filmId -> {
+            popularFilmsIndex.decrementLikes(filmId);
+            similarFilmsIndex.removeLike(filmId, id);
+            entityVersions.filmChanged(filmId);
+        });
+        friendGraph.removeUser(id).forEach(entityVersions::userChanged);
+        entityVersions.userRemoved(id);
+
+        log.info("Пользователь id={} удалён", id);
+    }
 
-        userStorage.update(user);
+    public void addFriend(Long userId, Long friendId) {
+        try {
+            if (userStorage.addFriendEdge(userId, friendId)) {
+                friendGraph.addEdge(userId, friendId);
+                entityVersions.userChanged(userId);
+            }
+        } catch (DataIntegrityViolationException e) {
+            getUser(userId);
+            getUser(friendId);
+            throw e;
+        }
 
-        log.info(
-                "Пользователи {}(id={}) и {}(id={}) теперь друзья",
-                user.getName(),
-                userId,
-                friend.getName(),
-                friendId);
+        log.info("Пользователи id={} и id={} теперь друзья", userId, friendId);
     }
 
     public void deleteFriend(Long userId, Long friendId) {
-        User user = getUser(userId);
-        User friend = getUser(friendId);
-
-        user.getFriends().remove(friendId);
-        friend.getFriends().remove(userId);
+        boolean removed = false;
+        if (userStorage.removeFriendEdge(userId, friendId)) {
+            friendGraph.removeEdge(userId, friendId);
+            entityVersions.userChanged(userId);
+            removed = true;
+        }
+        if (userStorage.removeFriendEdge(friendId, userId)) {
+            friendGraph.removeEdge(friendId, userId);
+            entityVersions.userChanged(friendId);
+            removed = true;
+        }
 
-        userStorage.update(user);
-        userStorage.update(friend);
+        if (!removed) {
+            getUser(userId);
+            getUser(friendId);
+        }
 
-        log.info(
-                "Пользователи {}(id={}) и {}(id={}) больше не друзья",
-                user.getName(),
-                userId,
-                friend.getName(),
-                friendId);
+        log.info("Пользователи id={} и id={} больше не друзья", userId, friendId);
     }
 
     public User getUser(Long id) {
@@ -110,26 +226,39 @@ public class UserService {
         return getUser(id);
     }
 
+    public Set<Long> findExistingIds(Collection<Long> ids) {
+        return userStorage.findExistingIds(ids);
+    }
+
     public List<User> getFriends(Long id) {
-        List<User> friends = new ArrayList<>();
         User user = getUser(id);
 
-        user.getFriends().forEach(x -> friends.add(userStorage.findById(x)));
-
-        return friends;
+        return userStorage.findByIds(user.getFriends());
     }
 
     public List<User> getMutualFriends(Long userId, Long otherUserId) {
-        User user = getUser(userId);
-        User otherUser = getUser(otherUserId);
+        List<Long> mutualIds = userStorage.findCommonFriendIds(userId, otherUserId);
 
-        if (user.getFriends() == null || otherUser.getFriends() == null) {
+        if (mutualIds.isEmpty()) {
+            getUser(userId);
+            getUser(otherUserId);
             return new ArrayList<>();
         }
 
-        return user.getFriends().stream()
-                .filter(id -> otherUser.getFriends().stream().anyMatch(otherId -> otherId.equals(id)))
-                .map(userStorage::findById)
+        return userStorage.findByIds(mutualIds);
+    }
+
+    public List<User> getSuggestions(Long id, int limit) {
+        getUser(id);
+
+        List<Long> suggestedIds = friendGraph.suggest(id, limit);
+        Map<Long, User> users = userStorage.findByIds(suggestedIds).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+        log.info("Возвращаем рекомендации друзей для пользователя id={}. Количество: {}", id, users.size());
+
+        return suggestedIds.stream()
+                .map(users::get)
+                .filter(Objects::nonNull)
                 .collect(Collectors.toList());
     }
 }
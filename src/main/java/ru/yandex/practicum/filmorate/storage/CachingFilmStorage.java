@@ -0,0 +1,443 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmField;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.IdSet;
+import ru.yandex.practicum.filmorate.model.LikeEvent;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.util.EdgeConsumer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+// Кэш разбит на сегменты со своей блокировкой, своим LRU и своей долей общего веса: чтения и лайки
+// разных фильмов не ждут друг друга. Сегментов не больше, чем помещается самых тяжёлых записей в общий вес,
+// чтобы такая запись влезала в свой сегмент.
+// Лайки закэшированного фильма хранятся замороженным IdSet и отдаются читателям без копирования; лайк
+// собирает новое множество, которое делит с прежним все блоки, кроме изменённого.
+public class CachingFilmStorage implements FilmStorage {
+    private static final int MAX_SEGMENTS = 16;
+
+    private final FilmStorage delegate;
+    private final long maxEntryWeight;
+    private final Segment[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+
+    public CachingFilmStorage(FilmStorage delegate, long maxWeight, long maxEntryWeight) {
+        this.delegate = delegate;
+        this.maxEntryWeight = maxEntryWeight;
+
+        int count = (int) Math.max(1, Math.min(MAX_SEGMENTS, maxWeight / Math.max(1, maxEntryWeight)));
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(maxWeight / count);
+        }
+    }
+
+    @Override
+    public Film add(Film film) {
+        return delegate.add(film);
+    }
+
+    @Override
+    public List<Film> addAll(List<Film> films) {
+        return delegate.addAll(films);
+    }
+
+    @Override
+    public Film update(Film film) {
+        try {
+            return delegate.update(film);
+        } finally {
+            invalidate(film.getId());
+        }
+    }
+
+    @Override
+    public void remove(Long id) {
+        try {
+            delegate.remove(id);
+        } finally {
+            invalidate(id);
+        }
+    }
+
+    @Override
+    public List<Film> findAll() {
+        return delegate.findAll();
+    }
+
+    @Override
+    public void forEachFilm(Set<FilmField> fields, Consumer<Film> consumer) {
+        delegate.forEachFilm(fields, consumer);
+    }
+
+    @Override
+    public List<Film> findPage(Long after, int limit, Set<FilmField> fields) {
+        return delegate.findPage(after, limit, fields);
+    }
+
+    // Промах берёт токен загрузки своего id; запись по этому id токен отзывает, и загруженный до неё
+    // фильм в кэш не попадает. Записи по другим фильмам чужие загрузки не задевают.
+    // Наружу отдаётся новый объект фильма с общим замороженным списком лайков: менять его нельзя, а
+    // остальные поля вызывающий может менять у своей копии.
+    @Override
+    public Film findById(Long id) {
+        Segment segment = segmentFor(id);
+        Object token;
+        synchronized (segment) {
+            CachedFilm cached = segment.cache.get(id);
+            if (cached != null) {
+                hits.increment();
+                return serve(cached.film);
+            }
+            token = segment.loadTokens.computeIfAbsent(id, x -> new Object());
+        }
+
+        misses.increment();
+        long start = System.nanoTime();
+        Film film = delegate.findById(id);
+        loadNanos.add(System.nanoTime() - start);
+        loads.increment();
+
+        return film == null ? null : cacheLoaded(film, token);
+    }
+
+    // Попадания отдаются из кэша, промахи дочитываются одним запросом и кэшируются, как в findById.
+    @Override
+    public List<Film> findByIds(Collection<Long> ids) {
+        Map<Long, Film> films = new TreeMap<>();
+        Map<Long, Object> tokens = new HashMap<>();
+        for (Long id : ids) {
+            Segment segment = segmentFor(id);
+            synchronized (segment) {
+                CachedFilm cached = segment.cache.get(id);
+                if (cached != null) {
+                    films.put(id, serve(cached.film));
+                } else if (!tokens.containsKey(id)) {
+                    tokens.put(id, segment.loadTokens.computeIfAbsent(id, x -> new Object()));
+                }
+            }
+        }
+        hits.add(films.size());
+        if (tokens.isEmpty()) {
+            return new ArrayList<>(films.values());
+        }
+
+        misses.add(tokens.size());
+        long start = System.nanoTime();
+        List<Film> loaded = delegate.findByIds(tokens.keySet());
+        loadNanos.add(System.nanoTime() - start);
+        loads.increment();
+
+        loaded.forEach(film -> films.put(film.getId(), cacheLoaded(film, tokens.remove(film.getId()))));
+        tokens.forEach((id, token) -> {
+            Segment segment = segmentFor(id);
+            synchronized (segment) {
+                segment.loadTokens.remove(id, token);
+            }
+        });
+
+        return new ArrayList<>(films.values());
+    }
+
+    @Override
+    public List<Film> findPopular(int limit) {
+        return delegate.findPopular(limit);
+    }
+
+    // Сводки собираются запросами COUNT/EXISTS и в кэш полных фильмов не попадают.
+    @Override
+    public List<FilmSummary> findSummaries(Collection<Long> ids, Long viewerId) {
+        return delegate.findSummaries(ids, viewerId);
+    }
+
+    @Override
+    public List<Long> findLikes(Long filmId, Long after, int limit) {
+        return delegate.findLikes(filmId, after, limit);
+    }
+
+    // Закэшированный фильм отвечает без обращения к базе, иначе — точечная проверка в хранилище.
+    @Override
+    public Boolean findLike(Long filmId, Long userId) {
+        Segment segment = segmentFor(filmId);
+        Set<Long> likes;
+        synchronized (segment) {
+            CachedFilm cached = segment.cache.get(filmId);
+            likes = cached == null ? null : cached.film.getLikes();
+        }
+        if (likes == null) {
+            return delegate.findLike(filmId, userId);
+        }
+        return likes.contains(userId);
+    }
+
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> ids) {
+        return delegate.findExistingIds(ids);
+    }
+
+    @Override
+    public Map<Long, Long> findLikeCounts() {
+        return delegate.findLikeCounts();
+    }
+
+    @Override
+    public void forEachLike(EdgeConsumer consumer) {
+        delegate.forEachLike(consumer);
+    }
+
+    @Override
+    public boolean addLike(Long filmId, Long userId) {
+        boolean added = delegate.addLike(filmId, userId);
+        if (added) {
+            updateLikes(filmId, Map.of(userId, true));
+        }
+        return added;
+    }
+
+    @Override
+    public boolean removeLike(Long filmId, Long userId) {
+        boolean removed = delegate.removeLike(filmId, userId);
+        if (removed) {
+            updateLikes(filmId, Map.of(userId, false));
+        }
+        return removed;
+    }
+
+    @Override
+    public boolean[] applyLikes(List<LikeEvent> events) {
+        boolean[] applied = delegate.applyLikes(events);
+
+        // Новый список лайков собирается один раз на фильм, а не на каждое событие пакета.
+        Map<Long, Map<Long, Boolean>> changes = new HashMap<>();
+        for (int i = 0; i < events.size(); i++) {
+            if (applied[i]) {
+                LikeEvent event = events.get(i);
+                changes.computeIfAbsent(event.getFilmId(), x -> new HashMap<>())
+                        .put(event.getUserId(), event.getOp() == LikeEvent.Op.LIKE);
+            }
+        }
+        changes.forEach(this::updateLikes);
+        return applied;
+    }
+
+    @Override
+    public Set<Long> removeUserLikes(Long userId) {
+        Set<Long> filmIds = delegate.removeUserLikes(userId);
+        filmIds.forEach(filmId -> updateLikes(filmId, Map.of(userId, false)));
+        return filmIds;
+    }
+
+    @Override
+    public int reconcileLikeCounts() {
+        return delegate.reconcileLikeCounts();
+    }
+
+    public void invalidateAll() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.loadTokens.clear();
+                segment.cache.clear();
+                segment.weight = 0;
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRatio() {
+        long requests = getHits() + getMisses();
+        return requests == 0 ? 0 : (double) getHits() / requests;
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getAverageLoadMillis() {
+        long count = loads.sum();
+        return count == 0 ? 0 : loadNanos.sum() / 1_000_000.0 / count;
+    }
+
+    public long getWeight() {
+        long weight = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+
+    public int getSize() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.cache.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment segmentFor(Long id) {
+        return segments[Math.floorMod(Long.hashCode(id), segments.length)];
+    }
+
+    private void invalidate(Long id) {
+        Segment segment = segmentFor(id);
+        synchronized (segment) {
+            segment.loadTokens.remove(id);
+            segment.remove(id);
+        }
+    }
+
+    // Загруженный фильм кэшируется, только если токен его загрузки не отозван записью.
+    private Film cacheLoaded(Film film, Object token) {
+        Film snapshot = snapshot(film);
+        Segment segment = segmentFor(film.getId());
+        synchronized (segment) {
+            if (segment.loadTokens.get(film.getId()) == token) {
+                segment.loadTokens.remove(film.getId());
+                segment.put(film.getId(), snapshot);
+            }
+        }
+        return serve(snapshot);
+    }
+
+    // Меняется только изменённый блок лайков, остальные блоки новое множество делит с прежним.
+    private void updateLikes(Long filmId, Map<Long, Boolean> changes) {
+        Segment segment = segmentFor(filmId);
+        synchronized (segment) {
+            segment.loadTokens.remove(filmId);
+            CachedFilm cached = segment.cache.get(filmId);
+            if (cached == null) {
+                return;
+            }
+
+            Film film = cached.film;
+            IdSet likes = new IdSet(film.getLikes());
+            changes.forEach((userId, liked) -> {
+                if (liked) {
+                    likes.add(userId);
+                } else {
+                    likes.remove(userId);
+                }
+            });
+            likes.freeze();
+
+            segment.put(filmId, new Film(
+                    film.getId(),
+                    film.getName(),
+                    film.getDescription(),
+                    film.getReleaseDate(),
+                    film.getDuration(),
+                    likes,
+                    film.getMpa(),
+                    film.getGenres()));
+        }
+    }
+
+    // Закэшированный фильм ни с кем не делит изменяемых полей: жанры и рейтинг копируются, лайки замораживаются.
+    private static Film snapshot(Film film) {
+        IdSet likes = null;
+        if (film.getLikes() != null) {
+            likes = new IdSet(film.getLikes());
+            likes.freeze();
+        }
+        return copy(film, likes);
+    }
+
+    private static Film serve(Film cached) {
+        return copy(cached, cached.getLikes());
+    }
+
+    private static Film copy(Film film, Set<Long> likes) {
+        return new Film(
+                film.getId(),
+                film.getName(),
+                film.getDescription(),
+                film.getReleaseDate(),
+                film.getDuration(),
+                likes,
+                film.getMpa() == null ? null : new Mpa(film.getMpa().getId(), film.getMpa().getName()),
+                film.getGenres() == null ? null : film.getGenres().stream()
+                        .map(genre -> new Genre(genre.getId(), genre.getName()))
+                        .collect(Collectors.toCollection(LinkedHashSet::new)));
+    }
+
+    private static long weigh(Film film) {
+        long likes = film.getLikes() == null ? 0 : film.getLikes().size();
+        long genres = film.getGenres() == null ? 0 : film.getGenres().size();
+        return 1 + likes + genres;
+    }
+
+    private class Segment {
+        private final long maxWeight;
+        private final Map<Long, CachedFilm> cache = new LinkedHashMap<>(16, 0.75f, true);
+        private final Map<Long, Object> loadTokens = new HashMap<>();
+        private long weight;
+
+        private Segment(long maxWeight) {
+            this.maxWeight = maxWeight;
+        }
+
+        private void remove(Long id) {
+            CachedFilm removed = cache.remove(id);
+            if (removed != null) {
+                weight -= removed.weight;
+            }
+        }
+
+        private void put(Long id, Film film) {
+            long filmWeight = weigh(film);
+            if (filmWeight > maxEntryWeight) {
+                remove(id);
+                return;
+            }
+
+            CachedFilm previous = cache.put(id, new CachedFilm(film, filmWeight));
+            weight += filmWeight - (previous == null ? 0 : previous.weight);
+
+            Iterator<CachedFilm> eldest = cache.values().iterator();
+            while (weight > maxWeight && eldest.hasNext()) {
+                weight -= eldest.next().weight;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    private static class CachedFilm {
+        private final Film film;
+        private final long weight;
+
+        private CachedFilm(Film film, long weight) {
+            this.film = film;
+            this.weight = weight;
+        }
+    }
+}
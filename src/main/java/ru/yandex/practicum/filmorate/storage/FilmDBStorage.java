@@ -1,40 +1,67 @@
 package ru.yandex.practicum.filmorate.storage;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
-import lombok.AllArgsConstructor;
-import lombok.Data;
 import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
-import org.springframework.jdbc.support.rowset.SqlRowSet;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.dao.GenreDao;
 import ru.yandex.practicum.filmorate.dao.MpaDao;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmField;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
 import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.IdSet;
+import ru.yandex.practicum.filmorate.model.LikeEvent;
 import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.util.EdgeConsumer;
+import ru.yandex.practicum.filmorate.util.ForwardCursor;
+import ru.yandex.practicum.filmorate.util.JdbcBatches;
+import ru.yandex.practicum.filmorate.util.Projections;
 
 @Component("filmDBStorage")
 @RequiredArgsConstructor
 public class FilmDBStorage implements FilmStorage {
+    private static final int IDS_CHUNK_SIZE = 500;
+    private static final String LIKES_QUERY = "select film_id, user_id from likes %s order by film_id, user_id";
+    private static final String INSERT_FILM_QUERY =
+            "insert into film(name, description, release_date, duration, rating_id) values(?, ?, ?, ?, ?)";
+    private static final String GENRES_QUERY = "select film_id, genre_id from films_genres %s order by film_id, genre_id";
+    private static final String INSERT_LIKE_QUERY = "insert into likes(film_id, user_id) select ?, ? "
+            + "where not exists (select 1 from likes where film_id = ? and user_id = ?)";
+    private static final String DELETE_LIKE_QUERY = "delete from likes where film_id = ? and user_id = ?";
+    private static final String LIKE_COUNT_QUERY = "update film set like_count = like_count + ? where id = ?";
+    private static final String COUNT_LIKES = "(select count(*) from likes l where l.film_id = f.id)";
+    private static final String VIEWER_LIKED = "exists(select 1 from likes l where l.film_id = f.id and l.user_id = ?)";
+    private static final Set<FilmField> SUMMARY_FIELDS =
+            Collections.unmodifiableSet(EnumSet.complementOf(EnumSet.of(FilmField.LIKES)));
+
     private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
     private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
     private final MpaDao mpaDao;
+    private final GenreDao genreDao;
 
     @Override
     public Film add(Film film) {
-        String query =
-                "insert into film(name, description, release_date, duration, rating_id) values(?, ?, ?, ?, ?)";
         KeyHolder keyHolder = new GeneratedKeyHolder();
 
         jdbcTemplate.update(
                 con -> {
-                    PreparedStatement ps = con.prepareStatement(query, new String[]{"id"});
+                    PreparedStatement ps = con.prepareStatement(INSERT_FILM_QUERY, new String[]{"id"});
                     ps.setString(1, film.getName());
                     ps.setString(2, film.getDescription());
                     ps.setObject(3, film.getReleaseDate());
@@ -56,6 +83,48 @@ public class FilmDBStorage implements FilmStorage {
         return film;
     }
 
+    @Override
+    public List<Film> addAll(List<Film> films) {
+        Long[] keys = jdbcTemplate.execute((ConnectionCallback<Long[]>) con -> {
+            try (PreparedStatement ps = con.prepareStatement(INSERT_FILM_QUERY, new String[]{"id"})) {
+                for (Film film : films) {
+                    ps.setString(1, film.getName());
+                    ps.setString(2, film.getDescription());
+                    ps.setObject(3, film.getReleaseDate());
+                    ps.setLong(4, film.getDuration());
+                    ps.setObject(5, film.getMpa() == null ? null : film.getMpa().getId());
+                    ps.addBatch();
+                }
+                return JdbcBatches.executeReturningKeys(ps, films.size());
+            }
+        });
+
+        List<long[]> filmsGenres = new ArrayList<>();
+        for (int i = 0; i < films.size(); i++) {
+            Film film = films.get(i);
+            film.setId(keys[i]);
+            if (keys[i] != null && film.getGenres() != null) {
+                film.getGenres().stream()
+                        .map(Genre::getId)
+                        .distinct()
+                        .forEach(genreId -> filmsGenres.add(new long[]{film.getId(), genreId}));
+            }
+        }
+
+        if (!filmsGenres.isEmpty()) {
+            jdbcTemplate.batchUpdate(
+                    "insert into films_genres(film_id, genre_id) values(?, ?)",
+                    filmsGenres,
+                    filmsGenres.size(),
+                    (ps, row) -> {
+                        ps.setLong(1, row[0]);
+                        ps.setLong(2, row[1]);
+                    });
+        }
+
+        return films;
+    }
+
     private void insertFilmsGenres(Film film) {
         jdbcTemplate.batchUpdate(
                 "insert into films_genres(film_id, genre_id) values(?, ?)",
@@ -67,8 +136,13 @@ public class FilmDBStorage implements FilmStorage {
                 });
     }
 
+    // Лайки переписываются целиком, поэтому счётчик пересчитывается в той же транзакции.
     @Override
     public Film update(Film film) {
+        return transactionTemplate.execute(status -> updateWithLikes(film));
+    }
+
+    private Film updateWithLikes(Film film) {
         jdbcTemplate.update(
                 "update film set name = ?, description = ?, release_date = ?, duration = ?, rating_id = ? where id = ?",
                 film.getName(),
@@ -107,6 +181,8 @@ public class FilmDBStorage implements FilmStorage {
 
                 }
             }
+
+        jdbcTemplate.update("update film f set like_count = " + COUNT_LIKES + " where id = ?", film.getId());
         return film;
     }
 
@@ -118,105 +194,390 @@ public class FilmDBStorage implements FilmStorage {
     @Override
     public List<Film> findAll() {
         List<Film> films = new ArrayList<>();
-        List<FilmLike> filmsLikes =
-                jdbcTemplate.query(
-                        "select film_id, user_id from likes",
-                        (rs, rownum) -> new FilmLike(rs.getLong(1), rs.getLong(2)));
-        List<FilmGenre> filmGenres =
-                jdbcTemplate.query(
-                        "select fg.film_id, g.id, g.name "
-                                + "from film f, films_genres fg, genres g "
-                                + "where f.id = fg.film_id "
-                                + "and fg.genre_id = g.id",
-                        (rs, rownum) -> new FilmGenre(rs.getLong(1), rs.getLong(2), rs.getString(3)));
-        List<Mpa> allMpas = mpaDao.findAll();
-
-        SqlRowSet rs = jdbcTemplate.queryForRowSet("select * from film");
-
-        while (rs.next()) {
-            Set<Long> likes =
-                    filmsLikes.stream()
-                            .filter(x -> x.filmId.equals(rs.getLong("id")))
-                            .map(FilmLike::getUserId)
-                            .collect(Collectors.toSet());
-            Set<Genre> genres =
-                    filmGenres.stream()
-                            .filter(x -> x.filmId.equals(rs.getLong("id")))
-                            .map(x -> new Genre(x.getGenreId(), x.genreName))
-                            .collect(Collectors.toSet());
-
-            Mpa mpa = null;
-            Optional<Mpa> mpaOptional =
-                    allMpas.stream().filter(x -> x.getId().equals(rs.getLong("rating_id"))).findFirst();
-            if (mpaOptional.isPresent()) mpa = mpaOptional.get();
-
-            films.add(makeFilm(rs, likes, mpa, genres));
-        }
+        forEachFilm(FilmField.ALL, films::add);
+
+        return films;
+    }
+
+    // Фильм собирается из трёх курсоров и сразу отдаётся потребителю, в памяти держится только текущий.
+    // Курсоры лайков и жанров открываются, только если эти поля запрошены.
+    @Override
+    public void forEachFilm(Set<FilmField> fields, Consumer<Film> consumer) {
+        jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+            try (ForwardCursor filmRows = ForwardCursor.open(
+                    con, "select " + Projections.columns(fields) + " from film order by id");
+                 ForwardCursor likeRows = openChildren(con, fields, FilmField.LIKES, LIKES_QUERY, "");
+                 ForwardCursor genreRows = openChildren(con, fields, FilmField.GENRES, GENRES_QUERY, "")) {
+                for (; filmRows.hasRow(); filmRows.next()) {
+                    Film film = makeFilm(filmRows.row(), fields);
+                    fillChildren(film, likeRows, genreRows);
+                    consumer.accept(film);
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public List<Film> findPage(Long after, int limit, Set<FilmField> fields) {
+        return findWithChildren(fields, "where id > ? order by id limit ?", after, limit);
+    }
+
+    private List<Film> findWithChildren(Set<FilmField> fields, String filter, Object... params) {
+        List<Film> films = new ArrayList<>();
+
+        jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+            try (ForwardCursor filmRows = ForwardCursor.open(
+                    con, "select " + Projections.columns(fields) + " from film " + filter, params)) {
+                for (; filmRows.hasRow(); filmRows.next()) {
+                    films.add(makeFilm(filmRows.row(), fields));
+                }
+            }
+
+            if (films.isEmpty()) {
+                return null;
+            }
+
+            Long firstId = films.get(0).getId();
+            Long lastId = films.get(films.size() - 1).getId();
+            String range = "where film_id between ? and ?";
+            try (ForwardCursor likeRows = openChildren(
+                    con, fields, FilmField.LIKES, LIKES_QUERY, range, firstId, lastId);
+                 ForwardCursor genreRows = openChildren(
+                         con, fields, FilmField.GENRES, GENRES_QUERY, range, firstId, lastId)) {
+                for (Film film : films) {
+                    fillChildren(film, likeRows, genreRows);
+                }
+            }
+            return null;
+        });
 
         return films;
     }
 
-    private Film makeFilm(SqlRowSet rs, Set<Long> likes, Mpa mpa, Set<Genre> genres) {
+    private static ForwardCursor openChildren(
+            Connection con,
+            Set<FilmField> fields,
+            FilmField field,
+            String query,
+            String filter,
+            Object... params) throws SQLException {
+        return fields.contains(field) ? ForwardCursor.open(con, String.format(query, filter), params) : null;
+    }
+
+    // Лайки и жанры фильмов, отсортированных по id, читаются по их списку id.
+    private void fillChildren(Connection con, List<Film> films, Object[] ids) throws SQLException {
+        String filter = "where film_id in (" + placeholders(ids.length) + ")";
+        try (ForwardCursor likeRows = ForwardCursor.open(con, String.format(LIKES_QUERY, filter), ids);
+             ForwardCursor genreRows = ForwardCursor.open(con, String.format(GENRES_QUERY, filter), ids)) {
+            for (Film film : films) {
+                fillChildren(film, likeRows, genreRows);
+            }
+        }
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private void fillChildren(Film film, ForwardCursor likeRows, ForwardCursor genreRows) throws SQLException {
+        for (; likeRows != null && likeRows.advanceTo(film.getId()); likeRows.next()) {
+            film.getLikes().add(likeRows.row().getLong(2));
+        }
+
+        for (; genreRows != null && genreRows.advanceTo(film.getId()); genreRows.next()) {
+            film.getGenres().add(genreDao.findById(genreRows.row().getLong(2)));
+        }
+    }
+
+    // Читаются только выбранные колонки. Незапрошенные поля остаются пустыми, фильтр проекции их не пишет.
+    private Film makeFilm(ResultSet rs, Set<FilmField> fields) throws SQLException {
+        Mpa mpa = null;
+        if (fields.contains(FilmField.MPA)) {
+            long ratingId = rs.getLong("rating_id");
+            mpa = rs.wasNull() ? null : mpaDao.findById(ratingId);
+        }
+
         return new Film(
                 rs.getLong("id"),
-                rs.getString("name"),
-                rs.getString("description"),
-                LocalDate.parse(Objects.requireNonNull(rs.getString("release_date")), formatter),
-                rs.getLong("duration"),
-                likes,
+                fields.contains(FilmField.NAME) ? rs.getString("name") : null,
+                fields.contains(FilmField.DESCRIPTION) ? rs.getString("description") : null,
+                fields.contains(FilmField.RELEASE_DATE)
+                        ? LocalDate.parse(Objects.requireNonNull(rs.getString("release_date")), formatter)
+                        : null,
+                fields.contains(FilmField.DURATION) ? rs.getLong("duration") : 0,
+                fields.contains(FilmField.LIKES) ? new IdSet() : null,
                 mpa,
-                genres);
+                fields.contains(FilmField.GENRES) ? new LinkedHashSet<>() : null);
     }
 
     @Override
     public Film findById(Long id) {
-        String queryFilm =
-                "SELECT f.*, g.id AS genre_id, g.name AS genre_name, r.id AS rating_id, r.name AS rating_name, l.user_id \n" +
-                        "FROM film f \n" +
-                        "LEFT JOIN films_genres fg ON f.id = fg.film_id \n" +
-                        "LEFT JOIN genres g ON fg.genre_id = g.id \n" +
-                        "LEFT JOIN ratings r ON f.rating_id = r.id \n" +
-                        "LEFT JOIN likes l ON f.id = l.film_id \n" +
-                        "WHERE f.id = ?\n" +
-                        "ORDER BY f.id, g.id\n";
-
-        List<Film> films = jdbcTemplate.query(queryFilm, (rs, rowNum) -> {
-            long filmId = rs.getLong("id");
-            String filmName = rs.getString("name");
-            String filmDescription = rs.getString("description");
-            LocalDate releaseDate = LocalDate.parse(rs.getString("release_date"), formatter);
-            long duration = rs.getLong("duration");
-            Mpa mpa = new Mpa(rs.getLong("rating_id"), rs.getString("rating_name"));
-            Set<Long> likes = new HashSet<>();
-            Set<Genre> genres = new HashSet<>();
-
-            do {
-                Long genreId = rs.getLong("genre_id");
-                String genreName = rs.getString("genre_name");
-                if (genreId != 0 && genreName != null) {
-                    genres.add(new Genre(genreId, genreName));
+        List<Film> films = findWithChildren(FilmField.ALL, "where id = ?", id);
+
+        return films.isEmpty() ? null : films.get(0);
+    }
+
+    // Фильмы, их лайки и жанры читаются по списку id: разреженный список не тянет строки между своими id.
+    // Длинный список делится на пакеты по IDS_CHUNK_SIZE, как в хранилище пользователей.
+    @Override
+    public List<Film> findByIds(Collection<Long> ids) {
+        List<Long> sortedIds = ids.stream().distinct().sorted().collect(Collectors.toList());
+        List<Film> films = new ArrayList<>();
+
+        for (int from = 0; from < sortedIds.size(); from += IDS_CHUNK_SIZE) {
+            Object[] chunk = sortedIds.subList(from, Math.min(from + IDS_CHUNK_SIZE, sortedIds.size())).toArray();
+            jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+                List<Film> chunkFilms = new ArrayList<>();
+                String query = "select * from film where id in (" + placeholders(chunk.length) + ") order by id";
+                try (ForwardCursor filmRows = ForwardCursor.open(con, query, chunk)) {
+                    for (; filmRows.hasRow(); filmRows.next()) {
+                        chunkFilms.add(makeFilm(filmRows.row(), FilmField.ALL));
+                    }
                 }
-                likes.add(rs.getLong("user_id"));
-            } while (rs.next() && rs.getLong("id") == filmId);
 
-            return new Film(filmId, filmName, filmDescription, releaseDate, duration, likes, mpa, genres);
-        }, id);
+                if (!chunkFilms.isEmpty()) {
+                    fillChildren(con, chunkFilms, chunk);
+                }
+                films.addAll(chunkFilms);
+                return null;
+            });
+        }
 
-        return films.isEmpty() ? null : films.get(0);
+        return films;
     }
 
-    @Data
-    @AllArgsConstructor
-    private static class FilmLike {
-        Long filmId;
-        Long userId;
+    @Override
+    public List<Film> findPopular(int limit) {
+        List<Film> films = new ArrayList<>();
+
+        jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+            try (ForwardCursor filmRows = ForwardCursor.open(
+                    con, "select * from film order by like_count desc, id limit ?", limit)) {
+                for (; filmRows.hasRow(); filmRows.next()) {
+                    films.add(makeFilm(filmRows.row(), FilmField.ALL));
+                }
+            }
+
+            // Курсоры лайков и жанров идут по возрастанию film_id, а фильмы отсортированы по популярности.
+            List<Film> byId = new ArrayList<>(films);
+            byId.sort(Comparator.comparing(Film::getId));
+            for (int from = 0; from < byId.size(); from += IDS_CHUNK_SIZE) {
+                List<Film> chunk = byId.subList(from, Math.min(from + IDS_CHUNK_SIZE, byId.size()));
+                fillChildren(con, chunk, chunk.stream().map(Film::getId).toArray());
+            }
+            return null;
+        });
+
+        return films;
+    }
+
+    // Число лайков считается COUNT по первичному ключу likes, лайк зрителя проверяется EXISTS,
+    // сами id лайкнувших не читаются.
+    @Override
+    public List<FilmSummary> findSummaries(Collection<Long> ids, Long viewerId) {
+        List<Long> sortedIds = ids.stream().distinct().sorted().collect(Collectors.toList());
+        List<FilmSummary> summaries = new ArrayList<>();
+        String query = "select f.*, " + COUNT_LIKES + " likes_total"
+                + (viewerId == null ? "" : ", " + VIEWER_LIKED + " viewer_liked")
+                + " from film f where f.id in (%s) order by f.id";
+
+        for (int from = 0; from < sortedIds.size(); from += IDS_CHUNK_SIZE) {
+            Object[] chunk = sortedIds.subList(from, Math.min(from + IDS_CHUNK_SIZE, sortedIds.size())).toArray();
+            String placeholders = placeholders(chunk.length);
+            List<Object> params = new ArrayList<>();
+            if (viewerId != null) {
+                params.add(viewerId);
+            }
+            params.addAll(Arrays.asList(chunk));
+
+            jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+                try (ForwardCursor filmRows = ForwardCursor.open(
+                        con, String.format(query, placeholders), params.toArray());
+                     ForwardCursor genreRows = ForwardCursor.open(
+                             con, String.format(GENRES_QUERY, "where film_id in (" + placeholders + ")"), chunk)) {
+                    for (; filmRows.hasRow(); filmRows.next()) {
+                        ResultSet rs = filmRows.row();
+                        Film film = makeFilm(rs, SUMMARY_FIELDS);
+                        fillChildren(film, null, genreRows);
+                        summaries.add(FilmSummary.of(
+                                film,
+                                rs.getLong("likes_total"),
+                                viewerId == null ? null : rs.getBoolean("viewer_liked")));
+                    }
+                }
+                return null;
+            });
+        }
+
+        return summaries;
+    }
+
+    @Override
+    public List<Long> findLikes(Long filmId, Long after, int limit) {
+        return jdbcTemplate.queryForList(
+                "select user_id from likes where film_id = ? and user_id > ? order by user_id limit ?",
+                Long.class,
+                filmId,
+                after,
+                limit);
+    }
+
+    // Одна строка по первичному ключу film и проверка по первичному ключу likes, без загрузки лайков фильма.
+    @Override
+    public Boolean findLike(Long filmId, Long userId) {
+        return jdbcTemplate.query(
+                "select exists(select 1 from likes where film_id = f.id and user_id = ?) from film f where f.id = ?",
+                rs -> rs.next() ? rs.getBoolean(1) : null,
+                userId,
+                filmId);
+    }
+
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> ids) {
+        List<Long> distinctIds = ids.stream().distinct().collect(Collectors.toList());
+        Set<Long> existing = new HashSet<>();
+
+        for (int from = 0; from < distinctIds.size(); from += IDS_CHUNK_SIZE) {
+            Object[] chunk = distinctIds.subList(from, Math.min(from + IDS_CHUNK_SIZE, distinctIds.size())).toArray();
+            existing.addAll(jdbcTemplate.queryForList(
+                    "select id from film where id in (" + placeholders(chunk.length) + ")", Long.class, chunk));
+        }
+
+        return existing;
     }
 
-    @Data
-    @AllArgsConstructor
-    private static class FilmGenre {
-        Long filmId;
-        Long genreId;
-        String genreName;
+    @Override
+    public Map<Long, Long> findLikeCounts() {
+        Map<Long, Long> likeCounts = new HashMap<>();
+        jdbcTemplate.query(
+                "select f.id, count(l.user_id) from film f left join likes l on f.id = l.film_id group by f.id",
+                rs -> {
+                    likeCounts.put(rs.getLong(1), rs.getLong(2));
+                });
+
+        return likeCounts;
+    }
+
+    @Override
+    public void forEachLike(EdgeConsumer consumer) {
+        jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+            try (ForwardCursor likeRows = ForwardCursor.open(con, String.format(LIKES_QUERY, ""))) {
+                for (; likeRows.hasRow(); likeRows.next()) {
+                    consumer.accept(likeRows.row().getLong(1), likeRows.row().getLong(2));
+                }
+            }
+            return null;
+        });
+    }
+
+    // Счётчик меняется только если строка лайка действительно добавилась или удалилась,
+    // так что повторный лайк по-прежнему обходится одним запросом.
+    @Override
+    public boolean addLike(Long filmId, Long userId) {
+        try {
+            return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+                boolean added = jdbcTemplate.update(INSERT_LIKE_QUERY, filmId, userId, filmId, userId) > 0;
+                if (added) {
+                    jdbcTemplate.update(LIKE_COUNT_QUERY, 1, filmId);
+                }
+                return added;
+            }));
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean removeLike(Long filmId, Long userId) {
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            boolean removed = jdbcTemplate.update(DELETE_LIKE_QUERY, filmId, userId) > 0;
+            if (removed) {
+                jdbcTemplate.update(LIKE_COUNT_QUERY, -1, filmId);
+            }
+            return removed;
+        }));
+    }
+
+    @Override
+    public boolean[] applyLikes(List<LikeEvent> events) {
+        return transactionTemplate.execute(status -> applyLikesWithCounts(events));
+    }
+
+    // Изменения счётчиков копятся по фильмам и уходят одним пакетом после всех вставок и удалений.
+    // Строки film обновляются по возрастанию id, чтобы параллельные пакеты не ждали друг друга по кругу.
+    private boolean[] applyLikesWithCounts(List<LikeEvent> events) {
+        boolean[] applied = new boolean[events.size()];
+
+        for (int from = 0, to; from < events.size(); from = to) {
+            LikeEvent.Op op = events.get(from).getOp();
+            to = from + 1;
+            while (to < events.size() && events.get(to).getOp() == op) {
+                to++;
+            }
+
+            boolean[] run = applyLikeRun(events.subList(from, to), op);
+            System.arraycopy(run, 0, applied, from, run.length);
+        }
+
+        Map<Long, Integer> deltas = new TreeMap<>();
+        for (int i = 0; i < events.size(); i++) {
+            if (applied[i]) {
+                LikeEvent event = events.get(i);
+                deltas.merge(event.getFilmId(), event.getOp() == LikeEvent.Op.LIKE ? 1 : -1, Integer::sum);
+            }
+        }
+        deltas.values().removeIf(delta -> delta == 0);
+
+        if (!deltas.isEmpty()) {
+            jdbcTemplate.batchUpdate(
+                    LIKE_COUNT_QUERY,
+                    new ArrayList<>(deltas.entrySet()),
+                    deltas.size(),
+                    (ps, delta) -> {
+                        ps.setInt(1, delta.getValue());
+                        ps.setLong(2, delta.getKey());
+                    });
+        }
+
+        return applied;
+    }
+
+    @Override
+    public Set<Long> removeUserLikes(Long userId) {
+        return transactionTemplate.execute(status -> {
+            Set<Long> filmIds = new HashSet<>(jdbcTemplate.queryForList(
+                    "select film_id from likes where user_id = ?", Long.class, userId));
+            jdbcTemplate.update(
+                    "update film set like_count = like_count - 1 where id in (select film_id from likes where user_id = ?)",
+                    userId);
+            jdbcTemplate.update("delete from likes where user_id = ?", userId);
+            return filmIds;
+        });
+    }
+
+    @Override
+    public int reconcileLikeCounts() {
+        return jdbcTemplate.update(
+                "update film f set like_count = " + COUNT_LIKES + " where like_count <> " + COUNT_LIKES);
+    }
+
+    // Подряд идущие события с одной операцией уходят одним пакетом, поэтому порядок лайков и отмен сохраняется.
+    private boolean[] applyLikeRun(List<LikeEvent> events, LikeEvent.Op op) {
+        return jdbcTemplate.execute((ConnectionCallback<boolean[]>) con -> {
+            String query = op == LikeEvent.Op.LIKE ? INSERT_LIKE_QUERY : DELETE_LIKE_QUERY;
+            try (PreparedStatement ps = con.prepareStatement(query)) {
+                for (LikeEvent event : events) {
+                    ps.setLong(1, event.getFilmId());
+                    ps.setLong(2, event.getUserId());
+                    if (op == LikeEvent.Op.LIKE) {
+                        ps.setLong(3, event.getFilmId());
+                        ps.setLong(4, event.getUserId());
+                    }
+                    ps.addBatch();
+                }
+                return JdbcBatches.executeApplied(ps, events.size());
+            }
+        });
     }
 }
@@ -1,17 +1,66 @@
 package ru.yandex.practicum.filmorate.storage;
 
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmField;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
+import ru.yandex.practicum.filmorate.model.LikeEvent;
+import ru.yandex.practicum.filmorate.util.EdgeConsumer;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public interface FilmStorage {
   Film add(Film film);
 
+  List<Film> addAll(List<Film> films);
+
   Film update(Film film);
 
   void remove(Long id);
 
   List<Film> findAll();
 
+  void forEachFilm(Set<FilmField> fields, Consumer<Film> consumer);
+
+  List<Film> findPage(Long after, int limit, Set<FilmField> fields);
+
   Film findById(Long id);
+
+  // По возрастанию id, отсутствующие id пропускаются.
+  List<Film> findByIds(Collection<Long> ids);
+
+  List<Film> findPopular(int limit);
+
+  List<FilmSummary> findSummaries(Collection<Long> ids, Long viewerId);
+
+  List<Long> findLikes(Long filmId, Long after, int limit);
+
+  // null, если фильма нет.
+  Boolean findLike(Long filmId, Long userId);
+
+  Set<Long> findExistingIds(Collection<Long> ids);
+
+  Map<Long, Long> findLikeCounts();
+
+  void forEachLike(EdgeConsumer consumer);
+
+  boolean addLike(Long filmId, Long userId);
+
+  boolean removeLike(Long filmId, Long userId);
+
+  boolean[] applyLikes(List<LikeEvent> events);
+
+  // Снимает все лайки пользователя перед его удалением. Возвращает id фильмов, потерявших лайк.
+  Set<Long> removeUserLikes(Long userId);
+
+  int reconcileLikeCounts();
+
+  // Хранилище, откладывающее запись лайков, возвращает true и после каждого записанного пакета передаёт
+  // слушателю действительно применённые события. Остальные пишут сразу, и результат addLike окончателен.
+  default boolean addLikesListener(Consumer<List<LikeEvent>> listener) {
+    return false;
+  }
 }
@@ -1,42 +1,293 @@
 package ru.yandex.practicum.filmorate.storage;
 
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Component;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmField;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.IdSet;
+import ru.yandex.practicum.filmorate.model.LikeEvent;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.util.EdgeConsumer;
+import ru.yandex.practicum.filmorate.util.FilmSequence;
+import ru.yandex.practicum.filmorate.util.LockStripes;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Component("inMemoryFilmStorage")
 public class InMemoryFilmStorage implements FilmStorage {
-    private static final long id = 1;
-    private final Map<Long, Film> idToFilm = new HashMap<>();
+    // Лайки фильма лежат в IdSet и меняются только под блокировкой фильма, множества индекса — только внутри compute.
+    private final ConcurrentNavigableMap<Long, Film> idToFilm = new ConcurrentSkipListMap<>();
+    private final Map<Long, Set<Long>> userToLikedFilms = new ConcurrentHashMap<>();
+    private final LockStripes locks = new LockStripes(64);
+    private final InMemoryUserStorage userStorage;
 
+    public InMemoryFilmStorage(@Qualifier("inMemoryUserStorage") InMemoryUserStorage userStorage) {
+        this.userStorage = userStorage;
+        userStorage.addRemovalListener(this::removeUserLikes);
+    }
+
+    // Хранилище держит свою копию фильма, вызывающий получает отдельную и может менять её как угодно.
     @Override
     public Film add(Film film) {
-        idToFilm.put(film.getId(), film);
-        return film;
+        Film stored = copy(film, new IdSet());
+        stored.setId(FilmSequence.getNextId());
+
+        idToFilm.put(stored.getId(), stored);
+        return copy(stored, new IdSet(stored.getLikes()));
+    }
+
+    @Override
+    public List<Film> addAll(List<Film> films) {
+        return films.stream().map(this::add).collect(Collectors.toList());
     }
 
     @Override
     public Film update(Film film) {
-        idToFilm.put(film.getId(), film);
-        return film;
+        synchronized (locks.forId(film.getId())) {
+            Film existing = idToFilm.get(film.getId());
+            if (existing != null) {
+                existing.getLikes().forEach(userId -> unindexLike(film.getId(), userId));
+            }
+
+            IdSet likes = film.getLikes() == null ? new IdSet() : new IdSet(film.getLikes());
+            likes.forEach(userId -> indexLike(film.getId(), userId));
+
+            Film stored = copy(film, likes);
+            idToFilm.put(stored.getId(), stored);
+            return copy(stored, new IdSet(likes));
+        }
     }
 
     @Override
     public void remove(Long id) {
-        idToFilm.remove(id);
+        synchronized (locks.forId(id)) {
+            Film removed = idToFilm.remove(id);
+            if (removed != null) {
+                removed.getLikes().forEach(userId -> unindexLike(id, userId));
+            }
+        }
     }
 
     @Override
     public List<Film> findAll() {
-        return new ArrayList<>(idToFilm.values());
+        return findByIds(idToFilm.keySet());
+    }
+
+    // Фильмы и так лежат в памяти целиком, проекцию применяет сериализация.
+    @Override
+    public void forEachFilm(Set<FilmField> fields, Consumer<Film> consumer) {
+        idToFilm.keySet().stream()
+                .map(this::snapshot)
+                .filter(Objects::nonNull)
+                .forEach(consumer);
+    }
+
+    @Override
+    public List<Film> findPage(Long after, int limit, Set<FilmField> fields) {
+        return idToFilm.tailMap(after, false).keySet().stream()
+                .map(this::snapshot)
+                .filter(Objects::nonNull)
+                .limit(limit)
+                .collect(Collectors.toList());
     }
 
     @Override
     public Film findById(Long id) {
-        return idToFilm.get(id);
+        return snapshot(id);
+    }
+
+    @Override
+    public List<Film> findByIds(Collection<Long> ids) {
+        return ids.stream()
+                .distinct()
+                .sorted()
+                .map(this::snapshot)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<Film> findPopular(int limit) {
+        return findAll().stream()
+                .sorted(Comparator.comparing((Film film) -> film.getLikes().size())
+                        .reversed()
+                        .thenComparing(Film::getId))
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<FilmSummary> findSummaries(Collection<Long> ids, Long viewerId) {
+        return findByIds(ids).stream()
+                .map(film -> FilmSummary.of(
+                        film,
+                        film.getLikes().size(),
+                        viewerId == null ? null : film.getLikes().contains(viewerId)))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<Long> findLikes(Long filmId, Long after, int limit) {
+        Film film = snapshot(filmId);
+        if (film == null) {
+            return new ArrayList<>();
+        }
+
+        return film.getLikes().stream()
+                .filter(userId -> userId > after)
+                .sorted()
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Boolean findLike(Long filmId, Long userId) {
+        synchronized (locks.forId(filmId)) {
+            Film film = idToFilm.get(filmId);
+            return film == null ? null : film.getLikes().contains(userId);
+        }
+    }
+
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> ids) {
+        return ids.stream().filter(idToFilm::containsKey).collect(Collectors.toSet());
+    }
+
+    @Override
+    public Map<Long, Long> findLikeCounts() {
+        return findAll().stream()
+                .collect(Collectors.toMap(Film::getId, film -> (long) film.getLikes().size()));
+    }
+
+    @Override
+    public void forEachLike(EdgeConsumer consumer) {
+        forEachFilm(FilmField.ALL, film -> film.getLikes()
+                .forEach(userId -> consumer.accept(film.getId(), userId)));
+    }
+
+    // Блокировки берутся в порядке пользователь, затем фильм — так же, как при снятии лайков удалённого пользователя.
+    @Override
+    public boolean addLike(Long filmId, Long userId) {
+        return userStorage.whileExists(userId, () -> {
+            synchronized (locks.forId(filmId)) {
+                Film film = idToFilm.get(filmId);
+                if (film == null) {
+                    throw new DataIntegrityViolationException(String.format("Фильм с id=%s не существует", filmId));
+                }
+
+                boolean added = film.getLikes().add(userId);
+                if (added) {
+                    indexLike(filmId, userId);
+                }
+                return added;
+            }
+        });
+    }
+
+    @Override
+    public boolean removeLike(Long filmId, Long userId) {
+        synchronized (locks.forId(filmId)) {
+            Film film = idToFilm.get(filmId);
+            boolean removed = film != null && film.getLikes().remove(userId);
+            if (removed) {
+                unindexLike(filmId, userId);
+            }
+            return removed;
+        }
+    }
+
+    @Override
+    public boolean[] applyLikes(List<LikeEvent> events) {
+        boolean[] applied = new boolean[events.size()];
+        for (int i = 0; i < events.size(); i++) {
+            LikeEvent event = events.get(i);
+            applied[i] = event.getOp() == LikeEvent.Op.LIKE
+                    ? addLike(event.getFilmId(), event.getUserId())
+                    : removeLike(event.getFilmId(), event.getUserId());
+        }
+        return applied;
+    }
+
+    // Под блокировкой пользователя новые лайки от него не появляются, каждый лайк снимается
+    // под блокировкой своего фильма, как и обычная отмена лайка.
+    @Override
+    public Set<Long> removeUserLikes(Long userId) {
+        return userStorage.withLock(userId, () -> {
+            Set<Long> filmIds = new HashSet<>();
+            for (Long filmId : findLikedFilmIds(userId)) {
+                if (removeLike(filmId, userId)) {
+                    filmIds.add(filmId);
+                }
+            }
+            return filmIds;
+        });
+    }
+
+    // Число лайков берётся из самого множества, расходиться нечему.
+    @Override
+    public int reconcileLikeCounts() {
+        return 0;
+    }
+
+    public Set<Long> findLikedFilmIds(Long userId) {
+        Set<Long> copy = new IdSet();
+        userToLikedFilms.computeIfPresent(userId, (id, filmIds) -> {
+            copy.addAll(filmIds);
+            return filmIds;
+        });
+        return copy;
+    }
+
+    // Наружу уходит только копия, снятая под блокировкой фильма: чужой код не меняет хранилище в обход его методов.
+    private Film snapshot(Long id) {
+        synchronized (locks.forId(id)) {
+            Film film = idToFilm.get(id);
+            return film == null ? null : copy(film, new IdSet(film.getLikes()));
+        }
+    }
+
+    private static Film copy(Film film, Set<Long> likes) {
+        return new Film(
+                film.getId(),
+                film.getName(),
+                film.getDescription(),
+                film.getReleaseDate(),
+                film.getDuration(),
+                likes,
+                film.getMpa() == null ? null : new Mpa(film.getMpa().getId(), film.getMpa().getName()),
+                film.getGenres() == null ? new LinkedHashSet<>() : film.getGenres().stream()
+                        .map(genre -> new Genre(genre.getId(), genre.getName()))
+                        .collect(Collectors.toCollection(LinkedHashSet::new)));
+    }
+
+    private void indexLike(Long filmId, Long userId) {
+        userToLikedFilms.compute(userId, (id, filmIds) -> {
+            Set<Long> likedFilms = filmIds == null ? new IdSet() : filmIds;
+            likedFilms.add(filmId);
+            return likedFilms;
+        });
+    }
+
+    private void unindexLike(Long filmId, Long userId) {
+        userToLikedFilms.computeIfPresent(userId, (id, filmIds) -> {
+            filmIds.remove(filmId);
+            return filmIds.isEmpty() ? null : filmIds;
+        });
     }
 }
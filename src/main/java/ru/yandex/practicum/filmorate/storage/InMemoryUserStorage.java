@@ -1,45 +1,243 @@
 package ru.yandex.practicum.filmorate.storage;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.IdSet;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserField;
+import ru.yandex.practicum.filmorate.util.EdgeConsumer;
+import ru.yandex.practicum.filmorate.util.LockStripes;
+import ru.yandex.practicum.filmorate.util.UserSequence;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @Component("inMemoryUserStorage")
 @Slf4j
 public class InMemoryUserStorage implements UserStorage {
-    private static final long id = 1;
-    private final Map<Long, User> idToUser = new HashMap<>();
+    // Друзья пользователя лежат в IdSet и меняются только под его блокировкой, подписчики — только внутри compute.
+    private final ConcurrentNavigableMap<Long, User> idToUser = new ConcurrentSkipListMap<>();
+    private final Map<Long, Set<Long>> friendToUsers = new ConcurrentHashMap<>();
+    private final LockStripes locks = new LockStripes(64);
+    private final List<Consumer<Long>> removalListeners = new CopyOnWriteArrayList<>();
 
+    // Хранилище держит свою копию пользователя, вызывающий получает отдельную.
     @Override
     public User add(User user) {
-        idToUser.put(user.getId(), user);
-        return user;
+        User stored = copy(user, new IdSet());
+        stored.setId(UserSequence.getNextId());
+
+        idToUser.put(stored.getId(), stored);
+        return copy(stored, new IdSet(stored.getFriends()));
+    }
+
+    @Override
+    public List<User> addAll(List<User> users) {
+        return users.stream().map(this::add).collect(Collectors.toList());
     }
 
     @Override
     public User update(User user) {
-        idToUser.put(user.getId(), user);
-        return user;
+        synchronized (locks.forId(user.getId())) {
+            User existing = idToUser.get(user.getId());
+            User stored = copy(user, existing == null ? new IdSet() : existing.getFriends());
+            idToUser.put(stored.getId(), stored);
+            return copy(stored, new IdSet(stored.getFriends()));
+        }
     }
 
+    // Как каскад внешних ключей в базе: лайки пользователя снимаются под его блокировкой, и новый лайк
+    // между удалением пользователя и снятием лайков появиться не может.
     @Override
     public void remove(Long id) {
-        idToUser.remove(id);
+        User removed;
+        synchronized (locks.forId(id)) {
+            removed = idToUser.remove(id);
+            if (removed != null) {
+                removalListeners.forEach(listener -> listener.accept(id));
+            }
+        }
+        if (removed == null) {
+            return;
+        }
+
+        removed.getFriends().forEach(friendId -> unindexFriend(id, friendId));
+        Set<Long> followers = friendToUsers.remove(id);
+        if (followers != null) {
+            followers.forEach(userId -> removeFriendEdge(userId, id));
+        }
     }
 
     @Override
     public List<User> findAll() {
+        return findByIds(idToUser.keySet());
+    }
 
-        return new ArrayList<>(idToUser.values());
+    // Пользователи и так лежат в памяти целиком, проекцию применяет сериализация.
+    @Override
+    public void forEachUser(Set<UserField> fields, Consumer<User> consumer) {
+        idToUser.keySet().stream()
+                .map(this::snapshot)
+                .filter(Objects::nonNull)
+                .forEach(consumer);
+    }
+
+    @Override
+    public List<User> findPage(Long after, int limit, Set<UserField> fields) {
+        return idToUser.tailMap(after, false).keySet().stream()
+                .map(this::snapshot)
+                .filter(Objects::nonNull)
+                .limit(limit)
+                .collect(Collectors.toList());
     }
 
     @Override
     public User findById(Long id) {
-        return idToUser.get(id);
+        return snapshot(id);
+    }
+
+    @Override
+    public List<User> findByIds(Collection<Long> ids) {
+        return ids.stream()
+                .distinct()
+                .sorted()
+                .map(this::snapshot)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> ids) {
+        return ids.stream().filter(idToUser::containsKey).collect(Collectors.toSet());
+    }
+
+    @Override
+    public List<Long> findCommonFriendIds(Long userId, Long otherUserId) {
+        User user = snapshot(userId);
+        User otherUser = snapshot(otherUserId);
+        if (user == null || otherUser == null) {
+            return new ArrayList<>();
+        }
+
+        Set<Long> smaller = user.getFriends();
+        Set<Long> larger = otherUser.getFriends();
+        if (smaller.size() > larger.size()) {
+            smaller = otherUser.getFriends();
+            larger = user.getFriends();
+        }
+
+        return smaller.stream().filter(larger::contains).sorted().collect(Collectors.toList());
+    }
+
+    @Override
+    public void forEachFriendEdge(EdgeConsumer consumer) {
+        forEachUser(UserField.ALL, user -> user.getFriends()
+                .forEach(friendId -> consumer.accept(user.getId(), friendId)));
+    }
+
+    // Держим блокировки обоих пользователей: удаление друга не может пройти между проверкой и добавлением связи.
+    @Override
+    public boolean addFriendEdge(Long userId, Long friendId) {
+        Object[] pair = locks.forIds(userId, friendId);
+        synchronized (pair[0]) {
+            synchronized (pair[1]) {
+                User user = idToUser.get(userId);
+                if (user == null) {
+                    throw new DataIntegrityViolationException(
+                            String.format("Пользователь id=%s не существует", userId));
+                }
+                if (!idToUser.containsKey(friendId)) {
+                    throw new DataIntegrityViolationException(
+                            String.format("Пользователь id=%s не существует", friendId));
+                }
+
+                boolean added = user.getFriends().add(friendId);
+                if (added) {
+                    indexFriend(userId, friendId);
+                }
+                return added;
+            }
+        }
+    }
+
+    @Override
+    public boolean removeFriendEdge(Long userId, Long friendId) {
+        synchronized (locks.forId(userId)) {
+            User user = idToUser.get(userId);
+            boolean removed = user != null && user.getFriends().remove(friendId);
+            if (removed) {
+                unindexFriend(userId, friendId);
+            }
+            return removed;
+        }
+    }
+
+    // Действие выполняется под блокировкой пользователя, пока он существует; удаление ждёт его завершения.
+    public <T> T whileExists(Long userId, Supplier<T> action) {
+        synchronized (locks.forId(userId)) {
+            if (!idToUser.containsKey(userId)) {
+                throw new DataIntegrityViolationException(String.format("Пользователь id=%s не существует", userId));
+            }
+            return action.get();
+        }
+    }
+
+    public <T> T withLock(Long userId, Supplier<T> action) {
+        synchronized (locks.forId(userId)) {
+            return action.get();
+        }
+    }
+
+    // Слушатель вызывается под блокировкой удаляемого пользователя, сразу после его удаления.
+    public void addRemovalListener(Consumer<Long> listener) {
+        removalListeners.add(listener);
+    }
+
+    public Set<Long> findFollowerIds(Long userId) {
+        Set<Long> copy = new IdSet();
+        friendToUsers.computeIfPresent(userId, (id, followers) -> {
+            copy.addAll(followers);
+            return followers;
+        });
+        return copy;
+    }
+
+    // Наружу уходит только копия, снятая под блокировкой пользователя.
+    private User snapshot(Long id) {
+        synchronized (locks.forId(id)) {
+            User user = idToUser.get(id);
+            return user == null ? null : copy(user, new IdSet(user.getFriends()));
+        }
+    }
+
+    private static User copy(User user, Set<Long> friends) {
+        return new User(user.getId(), user.getEmail(), user.getLogin(), user.getName(), user.getBirthday(), friends);
+    }
+
+    private void indexFriend(Long userId, Long friendId) {
+        friendToUsers.compute(friendId, (id, userIds) -> {
+            Set<Long> followers = userIds == null ? new IdSet() : userIds;
+            followers.add(userId);
+            return followers;
+        });
+    }
+
+    private void unindexFriend(Long userId, Long friendId) {
+        friendToUsers.computeIfPresent(friendId, (id, userIds) -> {
+            userIds.remove(userId);
+            return userIds.isEmpty() ? null : userIds;
+        });
     }
 }
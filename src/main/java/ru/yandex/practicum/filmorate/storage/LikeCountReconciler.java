@@ -0,0 +1,28 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+// Счётчик film.like_count может разойтись с таблицей likes после ручных правок в базе или массовой загрузки
+// в обход хранилища. Первый проход идёт сразу при старте и заодно заполняет столбец в старых базах.
+@Component
+@Slf4j
+public class LikeCountReconciler {
+    private final FilmStorage filmStorage;
+
+    public LikeCountReconciler(@Qualifier("filmStorage") FilmStorage filmStorage) {
+        this.filmStorage = filmStorage;
+    }
+
+    @Scheduled(fixedDelayString = "${filmorate.like-count.reconcile-interval-ms:3600000}")
+    public int reconcile() {
+        int repaired = filmStorage.reconcileLikeCounts();
+        if (repaired > 0) {
+            log.warn("Счётчики лайков расходились с таблицей likes и исправлены. Фильмов: {}", repaired);
+        }
+
+        return repaired;
+    }
+}
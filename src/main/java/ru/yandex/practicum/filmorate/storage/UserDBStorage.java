@@ -1,39 +1,59 @@
 package ru.yandex.practicum.filmorate.storage;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
-import lombok.AllArgsConstructor;
-import lombok.Data;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.jdbc.support.rowset.SqlRowSet;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.model.IdSet;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserField;
+import ru.yandex.practicum.filmorate.util.EdgeConsumer;
+import ru.yandex.practicum.filmorate.util.ForwardCursor;
+import ru.yandex.practicum.filmorate.util.JdbcBatches;
+import ru.yandex.practicum.filmorate.util.Projections;
 
 @Component("userDBStorage")
 public class UserDBStorage implements UserStorage {
+    private static final int IDS_CHUNK_SIZE = 500;
+    private static final String INSERT_USER_QUERY =
+            "insert into \"USER\"(email, login, name, birthday) values(?, ?, ?, ?)";
+    private static final String FRIENDS_QUERY = "select user_id, friend_id from friends %s order by user_id, friend_id";
+
     private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
     private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
 
-    public UserDBStorage(JdbcTemplate jdbcTemplate) {
+    public UserDBStorage(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
         this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
     }
 
     @Override
     public User add(User user) {
-        String query = "insert into \"USER\"(email, login, name, birthday) values(?, ?, ?, ?)";
         KeyHolder keyHolder = new GeneratedKeyHolder();
         jdbcTemplate.update(
                 con -> {
-                    PreparedStatement ps = con.prepareStatement(query, new String[]{"id"});
+                    PreparedStatement ps = con.prepareStatement(INSERT_USER_QUERY, new String[]{"id"});
                     ps.setString(1, user.getEmail());
                     ps.setString(2, user.getLogin());
                     ps.setString(3, user.getName());
@@ -48,6 +68,27 @@ public class UserDBStorage implements UserStorage {
         return user;
     }
 
+    @Override
+    public List<User> addAll(List<User> users) {
+        Long[] keys = jdbcTemplate.execute((ConnectionCallback<Long[]>) con -> {
+            try (PreparedStatement ps = con.prepareStatement(INSERT_USER_QUERY, new String[]{"id"})) {
+                for (User user : users) {
+                    ps.setString(1, user.getEmail());
+                    ps.setString(2, user.getLogin());
+                    ps.setString(3, user.getName());
+                    ps.setObject(4, user.getBirthday());
+                    ps.addBatch();
+                }
+                return JdbcBatches.executeReturningKeys(ps, users.size());
+            }
+        });
+
+        for (int i = 0; i < users.size(); i++) {
+            users.get(i).setId(keys[i]);
+        }
+        return users;
+    }
+
     @Override
     public User update(User user) {
         jdbcTemplate.update(
@@ -58,64 +99,118 @@ public class UserDBStorage implements UserStorage {
                 user.getBirthday(),
                 user.getId());
 
-        jdbcTemplate.update("delete from friends where user_id = ?", user.getId());
-
-        jdbcTemplate.batchUpdate(
-                "insert into friends(user_id, friend_id, confirm) values(?, ?, true)",
-                user.getFriends(),
-                50,
-                (PreparedStatement ps, Long friend) -> {
-                    ps.setLong(1, user.getId());
-                    ps.setLong(2, friend);
-                });
-
         return user;
     }
 
+    // Лайки пользователя удаляет каскад, поэтому счётчики его фильмов уменьшаются заранее в той же транзакции.
     @Override
     public void remove(Long id) {
-        jdbcTemplate.update("delete from \"USER\" where id = ?", id);
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.update(
+                    "update film set like_count = like_count - 1 where id in (select film_id from likes where user_id = ?)",
+                    id);
+            jdbcTemplate.update("delete from \"USER\" where id = ?", id);
+        });
     }
 
-    private User makeUserWithFriends(SqlRowSet rs, List<Long> friends) {
+    private User makeUser(ResultSet rs) throws SQLException {
+        return makeUser(rs, UserField.ALL);
+    }
+
+    // Читаются только выбранные колонки. Незапрошенные поля остаются пустыми, фильтр проекции их не пишет.
+    private User makeUser(ResultSet rs, Set<UserField> fields) throws SQLException {
         return new User(
                 rs.getLong("id"),
-                rs.getString("email"),
-                rs.getString("login"),
-                rs.getString("name"),
-                LocalDate.parse(Objects.requireNonNull(rs.getString("birthday")), formatter),
-                new HashSet<>(friends));
+                fields.contains(UserField.EMAIL) ? rs.getString("email") : null,
+                fields.contains(UserField.LOGIN) ? rs.getString("login") : null,
+                fields.contains(UserField.NAME) ? rs.getString("name") : null,
+                fields.contains(UserField.BIRTHDAY)
+                        ? LocalDate.parse(Objects.requireNonNull(rs.getString("birthday")), formatter)
+                        : null,
+                fields.contains(UserField.FRIENDS) ? new IdSet() : null);
+    }
+
+    private static ForwardCursor openFriends(Connection con, Set<UserField> fields, String filter, Object... params)
+            throws SQLException {
+        return fields.contains(UserField.FRIENDS)
+                ? ForwardCursor.open(con, String.format(FRIENDS_QUERY, filter), params)
+                : null;
+    }
+
+    private void fillFriends(User user, ForwardCursor friendRows) throws SQLException {
+        for (; friendRows != null && friendRows.advanceTo(user.getId()); friendRows.next()) {
+            user.getFriends().add(friendRows.row().getLong(2));
+        }
     }
 
     @Override
     public List<User> findAll() {
         List<User> allUsers = new ArrayList<>();
-        SqlRowSet rowSet = jdbcTemplate.queryForRowSet("select * from \"USER\"");
-        List<Friends> allFriends =
-                jdbcTemplate.query(
-                        "select user_id, friend_id from friends",
-                        (rs, rownum) -> new Friends(rs.getLong(1), rs.getLong(2)));
-
-        while (rowSet.next()) {
-            List<Long> friends =
-                    allFriends.stream()
-                            .filter(x -> x.userId == rowSet.getLong("id"))
-                            .map(Friends::getFriendId)
-                            .collect(Collectors.toList());
-
-            allUsers.add(makeUserWithFriends(rowSet, friends));
-        }
+        forEachUser(UserField.ALL, allUsers::add);
 
         return allUsers;
     }
 
+    // Курсор друзей открывается, только если поле friends запрошено.
+    @Override
+    public void forEachUser(Set<UserField> fields, Consumer<User> consumer) {
+        jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+            try (ForwardCursor userRows = ForwardCursor.open(
+                    con, "select " + Projections.columns(fields) + " from \"USER\" order by id");
+                 ForwardCursor friendRows = openFriends(con, fields, "")) {
+                for (; userRows.hasRow(); userRows.next()) {
+                    User user = makeUser(userRows.row(), fields);
+                    fillFriends(user, friendRows);
+                    consumer.accept(user);
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public List<User> findPage(Long after, int limit, Set<UserField> fields) {
+        List<User> users = new ArrayList<>();
+
+        jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+            try (ForwardCursor userRows = ForwardCursor.open(
+                    con,
+                    "select " + Projections.columns(fields) + " from \"USER\" where id > ? order by id limit ?",
+                    after,
+                    limit)) {
+                for (; userRows.hasRow(); userRows.next()) {
+                    users.add(makeUser(userRows.row(), fields));
+                }
+            }
+
+            if (users.isEmpty()) {
+                return null;
+            }
+
+            try (ForwardCursor friendRows = openFriends(
+                    con,
+                    fields,
+                    "where user_id between ? and ?",
+                    users.get(0).getId(),
+                    users.get(users.size() - 1).getId())) {
+                for (User user : users) {
+                    fillFriends(user, friendRows);
+                }
+            }
+            return null;
+        });
+
+        return users;
+    }
+
     @Override
     public User findById(Long id) {
         String query =
                 "SELECT u.id, u.email, u.login, u.name, u.birthday, f.friend_id " +
                         "FROM \"USER\" u " +
                         "LEFT JOIN friends f ON u.id = f.user_id AND f.confirm = true " +
-                        "WHERE u.id = ?";
+                        "WHERE u.id = ? " +
+                        "ORDER BY f.friend_id";
         SqlRowSet rs = jdbcTemplate.queryForRowSet(query, id);
 
         if (!rs.next()) {
@@ -128,7 +223,7 @@ public class UserDBStorage implements UserStorage {
                 rs.getString("login"),
                 rs.getString("name"),
                 LocalDate.parse(rs.getString("birthday"), formatter),
-                new HashSet<>()
+                new IdSet()
         );
 
         do {
@@ -141,10 +236,91 @@ public class UserDBStorage implements UserStorage {
         return user;
     }
 
-    @Data
-    @AllArgsConstructor
-    private static class Friends {
-        Long userId;
-        Long friendId;
+    @Override
+    public List<User> findByIds(Collection<Long> ids) {
+        List<Long> sortedIds = ids.stream().distinct().sorted().collect(Collectors.toList());
+        List<User> users = new ArrayList<>();
+
+        for (int from = 0; from < sortedIds.size(); from += IDS_CHUNK_SIZE) {
+            List<Long> chunk = sortedIds.subList(from, Math.min(from + IDS_CHUNK_SIZE, sortedIds.size()));
+            String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            Object[] params = chunk.toArray();
+
+            jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+                try (ForwardCursor userRows = ForwardCursor.open(
+                        con, "select * from \"USER\" where id in (" + placeholders + ") order by id", params);
+                     ForwardCursor friendRows = ForwardCursor.open(
+                             con, String.format(FRIENDS_QUERY, "where user_id in (" + placeholders + ")"), params)) {
+                    for (; userRows.hasRow(); userRows.next()) {
+                        User user = makeUser(userRows.row());
+                        fillFriends(user, friendRows);
+                        users.add(user);
+                    }
+                }
+                return null;
+            });
+        }
+
+        return users;
+    }
+
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> ids) {
+        List<Long> distinctIds = ids.stream().distinct().collect(Collectors.toList());
+        Set<Long> existing = new HashSet<>();
+
+        for (int from = 0; from < distinctIds.size(); from += IDS_CHUNK_SIZE) {
+            List<Long> chunk = distinctIds.subList(from, Math.min(from + IDS_CHUNK_SIZE, distinctIds.size()));
+            String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            existing.addAll(jdbcTemplate.queryForList(
+                    "select id from \"USER\" where id in (" + placeholders + ")", Long.class, chunk.toArray()));
+        }
+
+        return existing;
+    }
+
+    @Override
+    public List<Long> findCommonFriendIds(Long userId, Long otherUserId) {
+        return jdbcTemplate.queryForList(
+                "select f1.friend_id "
+                        + "from friends f1 "
+                        + "join friends f2 on f1.friend_id = f2.friend_id "
+                        + "where f1.user_id = ? and f2.user_id = ? "
+                        + "order by f1.friend_id",
+                Long.class,
+                userId,
+                otherUserId);
+    }
+
+    @Override
+    public void forEachFriendEdge(EdgeConsumer consumer) {
+        jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+            try (ForwardCursor friendRows = ForwardCursor.open(con, String.format(FRIENDS_QUERY, ""))) {
+                for (; friendRows.hasRow(); friendRows.next()) {
+                    consumer.accept(friendRows.row().getLong(1), friendRows.row().getLong(2));
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public boolean addFriendEdge(Long userId, Long friendId) {
+        try {
+            return jdbcTemplate.update(
+                    "insert into friends(user_id, friend_id, confirm) select ?, ?, true "
+                            + "where not exists (select 1 from friends where user_id = ? and friend_id = ?)",
+                    userId,
+                    friendId,
+                    userId,
+                    friendId) > 0;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean removeFriendEdge(Long userId, Long friendId) {
+        return jdbcTemplate.update("delete from friends where user_id = ? and friend_id = ?", userId, friendId) > 0;
     }
 }
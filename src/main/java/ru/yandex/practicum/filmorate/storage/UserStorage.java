@@ -1,17 +1,40 @@
 package ru.yandex.practicum.filmorate.storage;
 
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserField;
+import ru.yandex.practicum.filmorate.util.EdgeConsumer;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public interface UserStorage {
     User add(User user);
 
+    List<User> addAll(List<User> users);
+
     User update(User user);
 
     void remove(Long id);
 
     List<User> findAll();
 
+    void forEachUser(Set<UserField> fields, Consumer<User> consumer);
+
+    List<User> findPage(Long after, int limit, Set<UserField> fields);
+
     User findById(Long id);
+
+    List<User> findByIds(Collection<Long> ids);
+
+    Set<Long> findExistingIds(Collection<Long> ids);
+
+    List<Long> findCommonFriendIds(Long userId, Long otherUserId);
+
+    void forEachFriendEdge(EdgeConsumer consumer);
+
+    boolean addFriendEdge(Long userId, Long friendId);
+
+    boolean removeFriendEdge(Long userId, Long friendId);
 }
@@ -0,0 +1,579 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmField;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
+import ru.yandex.practicum.filmorate.model.IdSet;
+import ru.yandex.practicum.filmorate.model.LikeEvent;
+import ru.yandex.practicum.filmorate.util.EdgeConsumer;
+import ru.yandex.practicum.filmorate.util.LockStripes;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+// Лайки копятся в буфере по фильмам и пишутся в базу пакетами. В буфере остаётся только итоговое
+// состояние пары фильм-пользователь, а было ли оно уже в базе, выясняет сброс: запись лайка не читает базу.
+// Поэтому addLike и removeLike сообщают лишь, что изменение принято, а о действительно записанных
+// изменениях после каждого пакета узнают слушатели.
+@Slf4j
+public class WriteBehindFilmStorage implements FilmStorage {
+    private final FilmStorage delegate;
+    private final UserStorage userStorage;
+    private final TransactionTemplate transactionTemplate;
+    private final int maxPending;
+    private final int batchSize;
+    private final LockStripes locks = new LockStripes(64);
+    private final Object flushLock = new Object();
+    private final Map<Long, Map<Long, Boolean>> pending = new ConcurrentHashMap<>();
+    private final Map<Long, Map<Long, Boolean>> flushing = new ConcurrentHashMap<>();
+    private final KnownIds knownUsers = new KnownIds(64);
+    private final KnownIds knownFilms = new KnownIds(64);
+    private final List<Consumer<List<LikeEvent>>> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+    private final LongAdder flushedEvents = new LongAdder();
+    private final LongAdder flushNanos = new LongAdder();
+
+    public WriteBehindFilmStorage(
+            FilmStorage delegate,
+            UserStorage userStorage,
+            TransactionTemplate transactionTemplate,
+            int maxPending,
+            int batchSize) {
+        this.delegate = delegate;
+        this.userStorage = userStorage;
+        this.transactionTemplate = transactionTemplate;
+        this.maxPending = maxPending;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public Film add(Film film) {
+        Film added = delegate.add(film);
+        knownFilms.add(added.getId());
+        return added;
+    }
+
+    @Override
+    public List<Film> addAll(List<Film> films) {
+        List<Film> added = delegate.addAll(films);
+        added.stream().map(Film::getId).filter(Objects::nonNull).forEach(knownFilms::add);
+        return added;
+    }
+
+    // Сначала сбрасываем буфер, чтобы отложенные лайки не легли поверх нового списка в неожиданном порядке.
+    @Override
+    public Film update(Film film) {
+        flush();
+        return delegate.update(film);
+    }
+
+    @Override
+    public void remove(Long id) {
+        knownFilms.remove(id);
+        synchronized (locks.forId(id)) {
+            Map<Long, Boolean> removed = pending.remove(id);
+            if (removed != null) {
+                pendingCount.addAndGet(-removed.size());
+            }
+        }
+        delegate.remove(id);
+    }
+
+    // Снимок буфера берётся до чтения из базы: если сброс успел завершиться между ними, база уже
+    // содержит эти изменения, и клиент всё равно видит свои записи.
+    @Override
+    public List<Film> findAll() {
+        Map<Long, Map<Long, Boolean>> overlays = overlays();
+        return delegate.findAll().stream()
+                .map(film -> merge(film, overlays.get(film.getId())))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void forEachFilm(Set<FilmField> fields, Consumer<Film> consumer) {
+        Map<Long, Map<Long, Boolean>> overlays = overlays();
+        delegate.forEachFilm(fields, film -> consumer.accept(merge(film, overlays.get(film.getId()))));
+    }
+
+    @Override
+    public List<Film> findPage(Long after, int limit, Set<FilmField> fields) {
+        Map<Long, Map<Long, Boolean>> overlays = overlays();
+        return delegate.findPage(after, limit, fields).stream()
+                .map(film -> merge(film, overlays.get(film.getId())))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Film findById(Long id) {
+        Map<Long, Boolean> overlay;
+        synchronized (locks.forId(id)) {
+            overlay = overlay(id);
+        }
+        return merge(delegate.findById(id), overlay);
+    }
+
+    @Override
+    public List<Film> findByIds(Collection<Long> ids) {
+        Map<Long, Map<Long, Boolean>> overlays = overlays();
+        return delegate.findByIds(ids).stream()
+                .map(film -> merge(film, overlays.get(film.getId())))
+                .collect(Collectors.toList());
+    }
+
+    // Буфер меняет число лайков только у фильмов из своего снимка. База отдаёт топ с запасом на каждый из них,
+    // недостающие фильмы снимка дочитываются пакетом, после наложения изменений топ сортируется заново.
+    @Override
+    public List<Film> findPopular(int limit) {
+        Map<Long, Map<Long, Boolean>> overlays = overlays();
+        if (overlays.isEmpty()) {
+            return delegate.findPopular(limit);
+        }
+
+        Map<Long, Film> candidates = new HashMap<>();
+        int widened = (int) Math.min((long) limit + overlays.size(), Integer.MAX_VALUE);
+        delegate.findPopular(widened).forEach(film -> candidates.put(film.getId(), film));
+        Set<Long> missing = new HashSet<>(overlays.keySet());
+        missing.removeAll(candidates.keySet());
+        delegate.findByIds(missing).forEach(film -> candidates.put(film.getId(), film));
+
+        return candidates.values().stream()
+                .map(film -> merge(film, overlays.get(film.getId())))
+                .sorted(Comparator.comparing((Film film) -> film.getLikes().size())
+                        .reversed()
+                        .thenComparing(Film::getId))
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    // Сводки без изменений в буфере считает база. Для фильмов из снимка буфера число лайков по сводке
+    // неоднозначно: сбрасываемые лайки могут уже лежать в базе. Такие фильмы дочитываются пакетом
+    // вместе с лайками, и счётчик с отметкой зрителя берутся из списка после наложения буфера.
+    @Override
+    public List<FilmSummary> findSummaries(Collection<Long> ids, Long viewerId) {
+        Map<Long, Map<Long, Boolean>> overlays = overlays();
+        List<FilmSummary> summaries = delegate.findSummaries(ids, viewerId);
+        Set<Long> overlaid = summaries.stream()
+                .map(FilmSummary::getId)
+                .filter(overlays::containsKey)
+                .collect(Collectors.toSet());
+        if (overlaid.isEmpty()) {
+            return summaries;
+        }
+
+        Map<Long, FilmSummary> merged = new HashMap<>();
+        for (Film film : delegate.findByIds(overlaid)) {
+            Set<Long> likes = merge(film, overlays.get(film.getId())).getLikes();
+            merged.put(film.getId(), FilmSummary.of(
+                    film, likes.size(), viewerId == null ? null : likes.contains(viewerId)));
+        }
+        return summaries.stream()
+                .map(summary -> merged.getOrDefault(summary.getId(), summary))
+                .collect(Collectors.toList());
+    }
+
+    // Буфер может убрать из страницы базы не больше своих изменений по фильму, поэтому база отдаёт
+    // страницу с таким запасом: после наложения первые limit id совпадают с итоговым списком.
+    @Override
+    public List<Long> findLikes(Long filmId, Long after, int limit) {
+        Map<Long, Boolean> overlay;
+        synchronized (locks.forId(filmId)) {
+            overlay = overlay(filmId);
+        }
+        if (overlay == null) {
+            return delegate.findLikes(filmId, after, limit);
+        }
+
+        int widened = (int) Math.min((long) limit + overlay.size(), Integer.MAX_VALUE);
+        TreeSet<Long> likes = new TreeSet<>(delegate.findLikes(filmId, after, widened));
+        overlay.forEach((userId, liked) -> {
+            if (!liked) {
+                likes.remove(userId);
+            } else if (after == null || userId > after) {
+                likes.add(userId);
+            }
+        });
+        return likes.stream().limit(limit).collect(Collectors.toList());
+    }
+
+    @Override
+    public Boolean findLike(Long filmId, Long userId) {
+        Boolean overlaid;
+        synchronized (locks.forId(filmId)) {
+            Map<Long, Boolean> overlay = overlay(filmId);
+            overlaid = overlay == null ? null : overlay.get(userId);
+        }
+        Boolean stored = delegate.findLike(filmId, userId);
+        return stored == null || overlaid == null ? stored : overlaid;
+    }
+
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> ids) {
+        return delegate.findExistingIds(ids);
+    }
+
+    @Override
+    public Map<Long, Long> findLikeCounts() {
+        flush();
+        return delegate.findLikeCounts();
+    }
+
+    @Override
+    public void forEachLike(EdgeConsumer consumer) {
+        flush();
+        delegate.forEachLike(consumer);
+    }
+
+    @Override
+    public boolean addLike(Long filmId, Long userId) {
+        return record(filmId, userId, true);
+    }
+
+    @Override
+    public boolean removeLike(Long filmId, Long userId) {
+        return record(filmId, userId, false);
+    }
+
+    @Override
+    public boolean[] applyLikes(List<LikeEvent> events) {
+        flush();
+        return delegate.applyLikes(events);
+    }
+
+    // Удаление пользователя редкое: сбрасываем буфер, чтобы его отложенные лайки тоже попали в ответ.
+    @Override
+    public Set<Long> removeUserLikes(Long userId) {
+        knownUsers.remove(userId);
+        flush();
+        return delegate.removeUserLikes(userId);
+    }
+
+    @Override
+    public boolean addLikesListener(Consumer<List<LikeEvent>> listener) {
+        listeners.add(listener);
+        return true;
+    }
+
+    // Сверка сравнивает счётчики с таблицей likes, отложенные лайки на неё не влияют.
+    @Override
+    public int reconcileLikeCounts() {
+        return delegate.reconcileLikeCounts();
+    }
+
+    @Scheduled(fixedDelayString = "${filmorate.likes.write-behind.flush-interval-ms:200}")
+    public void flush() {
+        synchronized (flushLock) {
+            List<LikeEvent> events = drain();
+            if (events.isEmpty()) {
+                return;
+            }
+
+            long start = System.nanoTime();
+            boolean failed = false;
+            try {
+                dropOrphans(events);
+            } catch (DataAccessException e) {
+                log.error(
+                        "Не удалось проверить пользователей и фильмы пакета, изменения возвращены в буфер: {}",
+                        NestedExceptionUtils.getMostSpecificCause(e).getMessage());
+                failed = true;
+                events.clear();
+            }
+
+            for (int from = 0; from < events.size(); from += batchSize) {
+                List<LikeEvent> chunk = events.subList(from, Math.min(from + batchSize, events.size()));
+                boolean[] applied;
+                try {
+                    applied = transactionTemplate.execute(status -> delegate.applyLikes(chunk));
+                } catch (DataAccessException | TransactionException e) {
+                    log.error(
+                            "Пакет лайков не записан, изменения возвращены в буфер: {}",
+                            NestedExceptionUtils.getMostSpecificCause(e).getMessage());
+                    failed = true;
+                    continue;
+                }
+                notifyListeners(chunk, applied);
+            }
+            complete(failed);
+
+            flushes.increment();
+            flushNanos.add(System.nanoTime() - start);
+            if (failed) {
+                flushFailures.increment();
+            } else {
+                flushedEvents.add(events.size());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+        log.info("Буфер лайков сброшен при остановке. Осталось изменений: {}", getPendingCount());
+    }
+
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    public long getFlushFailures() {
+        return flushFailures.sum();
+    }
+
+    public long getFlushedEvents() {
+        return flushedEvents.sum();
+    }
+
+    public double getAverageFlushMillis() {
+        long count = getFlushes();
+        return count == 0 ? 0 : flushNanos.sum() / 1_000_000.0 / count;
+    }
+
+    // Под блокировкой фильма только сравнение с буфером. Возвращает false, если буфер уже содержит
+    // такое же состояние пары; совпадает ли оно с базой, выяснится при сбросе.
+    private boolean record(Long filmId, Long userId, boolean liked) {
+        requireExisting(knownUsers, userId, userStorage::findExistingIds, "Пользователь id=%s не существует");
+        requireExisting(knownFilms, filmId, delegate::findExistingIds, "Фильм с id=%s не существует");
+
+        boolean changed;
+        synchronized (locks.forId(filmId)) {
+            Map<Long, Boolean> changes = pending.get(filmId);
+            Boolean current = changes == null ? null : changes.get(userId);
+            if (current == null) {
+                current = flushing.getOrDefault(filmId, Map.of()).get(userId);
+            }
+            changed = current == null || current != liked;
+
+            if (changed && pending.computeIfAbsent(filmId, x -> new HashMap<>()).put(userId, liked) == null) {
+                pendingCount.incrementAndGet();
+            }
+        }
+
+        if (pendingCount.get() >= maxPending) {
+            flush();
+            if (pendingCount.get() >= maxPending) {
+                throw new DataAccessResourceFailureException(
+                        String.format("Буфер лайков переполнен: %s изменений ждут записи", pendingCount.get()));
+            }
+        }
+
+        return changed;
+    }
+
+    // Проверенный id запоминается, и следующие лайки с ним в базу не ходят. Удаление, прошедшее мимо
+    // этого хранилища, ловит сброс: изменения удалённых пользователей и фильмов он отбрасывает.
+    private static void requireExisting(
+            KnownIds known, Long id, Function<Collection<Long>, Set<Long>> lookup, String message) {
+        if (known.contains(id)) {
+            return;
+        }
+        if (lookup.apply(Set.of(id)).isEmpty()) {
+            throw new DataIntegrityViolationException(String.format(message, id));
+        }
+        known.add(id);
+    }
+
+    private void notifyListeners(List<LikeEvent> chunk, boolean[] applied) {
+        List<LikeEvent> written = new ArrayList<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            if (applied[i]) {
+                written.add(chunk.get(i));
+            }
+        }
+        if (!written.isEmpty()) {
+            listeners.forEach(listener -> listener.accept(written));
+        }
+    }
+
+    // Изменения переезжают в flushing и остаются видны читателям, пока пакет не будет записан.
+    private List<LikeEvent> drain() {
+        List<LikeEvent> events = new ArrayList<>();
+        for (Long filmId : new ArrayList<>(pending.keySet())) {
+            synchronized (locks.forId(filmId)) {
+                Map<Long, Boolean> changes = pending.remove(filmId);
+                if (changes == null) {
+                    continue;
+                }
+                pendingCount.addAndGet(-changes.size());
+                flushing.put(filmId, changes);
+                changes.forEach((userId, liked) ->
+                        events.add(new LikeEvent(filmId, userId, liked ? LikeEvent.Op.LIKE : LikeEvent.Op.UNLIKE)));
+            }
+        }
+
+        // Пары в пакете не повторяются, так что порядок свободен: группируем по операции ради длинных JDBC-пакетов.
+        events.sort(Comparator.comparing(LikeEvent::getOp));
+        return events;
+    }
+
+    // Пользователь или фильм мог быть удалён, пока лайк ждал в буфере. Такие изменения отбрасываются,
+    // иначе нарушение внешнего ключа возвращало бы весь пакет в буфер снова и снова.
+    // Хранилища проверяют id пакетами по IDS_CHUNK_SIZE, так что длинный сброс не строит огромный IN.
+    private void dropOrphans(List<LikeEvent> events) {
+        Set<Long> userIds = events.stream().map(LikeEvent::getUserId).collect(Collectors.toSet());
+        Set<Long> filmIds = events.stream().map(LikeEvent::getFilmId).collect(Collectors.toSet());
+        Set<Long> existingUsers = userStorage.findExistingIds(userIds);
+        Set<Long> existingFilms = delegate.findExistingIds(filmIds);
+        if (existingUsers.size() == userIds.size() && existingFilms.size() == filmIds.size()) {
+            return;
+        }
+        userIds.stream().filter(id -> !existingUsers.contains(id)).forEach(knownUsers::remove);
+        filmIds.stream().filter(id -> !existingFilms.contains(id)).forEach(knownFilms::remove);
+
+        List<LikeEvent> orphans = events.stream()
+                .filter(event -> !existingUsers.contains(event.getUserId())
+                        || !existingFilms.contains(event.getFilmId()))
+                .collect(Collectors.toList());
+        for (LikeEvent orphan : orphans) {
+            synchronized (locks.forId(orphan.getFilmId())) {
+                Map<Long, Boolean> flushed = flushing.get(orphan.getFilmId());
+                if (flushed != null) {
+                    flushed.remove(orphan.getUserId());
+                }
+            }
+        }
+        events.removeAll(orphans);
+        log.warn("Отброшено изменений лайков удалённых пользователей и фильмов: {}", orphans.size());
+    }
+
+    // Записи идемпотентны, поэтому при ошибке возвращаем в буфер всё, включая успевшие записаться пакеты.
+    private void complete(boolean failed) {
+        for (Long filmId : new ArrayList<>(flushing.keySet())) {
+            synchronized (locks.forId(filmId)) {
+                Map<Long, Boolean> flushed = flushing.remove(filmId);
+                if (!failed || flushed == null) {
+                    continue;
+                }
+
+                Map<Long, Boolean> changes = pending.computeIfAbsent(filmId, x -> new HashMap<>());
+                flushed.forEach((userId, liked) -> {
+                    if (changes.putIfAbsent(userId, liked) == null) {
+                        pendingCount.incrementAndGet();
+                    }
+                });
+            }
+        }
+    }
+
+    private Map<Long, Boolean> overlay(Long filmId) {
+        Map<Long, Boolean> flushed = flushing.get(filmId);
+        Map<Long, Boolean> changes = pending.get(filmId);
+        if (flushed == null && changes == null) {
+            return null;
+        }
+
+        Map<Long, Boolean> overlay = flushed == null ? new HashMap<>() : new HashMap<>(flushed);
+        if (changes != null) {
+            overlay.putAll(changes);
+        }
+        return overlay;
+    }
+
+    private Map<Long, Map<Long, Boolean>> overlays() {
+        Set<Long> filmIds = new HashSet<>(pending.keySet());
+        filmIds.addAll(flushing.keySet());
+
+        Map<Long, Map<Long, Boolean>> overlays = new HashMap<>();
+        for (Long filmId : filmIds) {
+            synchronized (locks.forId(filmId)) {
+                Map<Long, Boolean> overlay = overlay(filmId);
+                if (overlay != null) {
+                    overlays.put(filmId, overlay);
+                }
+            }
+        }
+        return overlays;
+    }
+
+    private static Film merge(Film film, Map<Long, Boolean> overlay) {
+        // Без лайков в проекции накладывать нечего.
+        if (film == null || overlay == null || film.getLikes() == null) {
+            return film;
+        }
+
+        IdSet likes = new IdSet(film.getLikes());
+        overlay.forEach((userId, liked) -> {
+            if (liked) {
+                likes.add(userId);
+            } else {
+                likes.remove(userId);
+            }
+        });
+
+        return new Film(
+                film.getId(),
+                film.getName(),
+                film.getDescription(),
+                film.getReleaseDate(),
+                film.getDuration(),
+                likes,
+                film.getMpa(),
+                film.getGenres());
+    }
+
+    // Id, существование которых уже проверено. Множества разбиты на полосы, у каждой своя блокировка.
+    private static class KnownIds {
+        private final IdSet[] stripes;
+
+        private KnownIds(int count) {
+            stripes = new IdSet[count];
+            for (int i = 0; i < count; i++) {
+                stripes[i] = new IdSet();
+            }
+        }
+
+        private boolean contains(long id) {
+            IdSet stripe = stripeFor(id);
+            synchronized (stripe) {
+                return stripe.contains(id);
+            }
+        }
+
+        private void add(long id) {
+            IdSet stripe = stripeFor(id);
+            synchronized (stripe) {
+                stripe.add(id);
+            }
+        }
+
+        private void remove(long id) {
+            IdSet stripe = stripeFor(id);
+            synchronized (stripe) {
+                stripe.remove(id);
+            }
+        }
+
+        private IdSet stripeFor(long id) {
+            return stripes[Math.floorMod(Long.hashCode(id), stripes.length)];
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package ru.yandex.practicum.filmorate.util;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+public class DictionaryCache<T> {
+    private final Supplier<List<T>> loader;
+    private final Function<T, Long> idExtractor;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final AtomicLong version = new AtomicLong();
+    private volatile Snapshot<T> snapshot = new Snapshot<>(List.of(), new Object[0]);
+
+    public DictionaryCache(Supplier<List<T>> loader, Function<T, Long> idExtractor) {
+        this.loader = loader;
+        this.idExtractor = idExtractor;
+    }
+
+    public int refresh() {
+        List<T> values = List.copyOf(loader.get());
+
+        long maxId = values.stream().mapToLong(idExtractor::apply).max().orElse(-1);
+        Object[] byId = new Object[Math.toIntExact(maxId + 1)];
+        for (T value : values) {
+            byId[Math.toIntExact(idExtractor.apply(value))] = value;
+        }
+
+        snapshot = new Snapshot<>(values, byId);
+        version.incrementAndGet();
+        return values.size();
+    }
+
+    public List<T> findAll() {
+        hits.increment();
+        return snapshot.values;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T find(Long id) {
+        Object[] byId = snapshot.byId;
+        if (id != null && id >= 0 && id < byId.length && byId[id.intValue()] != null) {
+            hits.increment();
+            return (T) byId[id.intValue()];
+        }
+
+        misses.increment();
+        return null;
+    }
+
+    public long getVersion() {
+        return version.get();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private static class Snapshot<T> {
+        private final List<T> values;
+        private final Object[] byId;
+
+        private Snapshot(List<T> values, Object[] byId) {
+            this.values = values;
+            this.byId = byId;
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package ru.yandex.practicum.filmorate.util;
+
+@FunctionalInterface
+public interface EdgeConsumer {
+    void accept(long from, long to);
+}
@@ -1,9 +1,11 @@
 package ru.yandex.practicum.filmorate.util;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public class FilmSequence {
-    private static long id = 1;
+    private static final AtomicLong id = new AtomicLong(1);
 
     public static long getNextId() {
-        return id++;
+        return id.getAndIncrement();
     }
 }
@@ -0,0 +1,63 @@
+package ru.yandex.practicum.filmorate.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class ForwardCursor implements AutoCloseable {
+    public static final int FETCH_SIZE = 1000;
+
+    private final PreparedStatement statement;
+    private final ResultSet resultSet;
+    private boolean hasRow;
+
+    private ForwardCursor(PreparedStatement statement) throws SQLException {
+        this.statement = statement;
+        this.resultSet = statement.executeQuery();
+        this.hasRow = resultSet.next();
+    }
+
+    public static ForwardCursor open(Connection con, String sql, Object... params) throws SQLException {
+        PreparedStatement ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            ps.setFetchSize(FETCH_SIZE);
+            for (int i = 0; i < params.length; i++) {
+                ps.setObject(i + 1, params[i]);
+            }
+            return new ForwardCursor(ps);
+        } catch (SQLException e) {
+            ps.close();
+            throw e;
+        }
+    }
+
+    public boolean hasRow() {
+        return hasRow;
+    }
+
+    public ResultSet row() {
+        return resultSet;
+    }
+
+    public void next() throws SQLException {
+        hasRow = resultSet.next();
+    }
+
+    public boolean advanceTo(long key) throws SQLException {
+        while (hasRow && resultSet.getLong(1) < key) {
+            hasRow = resultSet.next();
+        }
+
+        return hasRow && resultSet.getLong(1) == key;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            resultSet.close();
+        } finally {
+            statement.close();
+        }
+    }
+}
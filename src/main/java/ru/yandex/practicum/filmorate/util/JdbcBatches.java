@@ -0,0 +1,47 @@
+package ru.yandex.practicum.filmorate.util;
+
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+public class JdbcBatches {
+    private JdbcBatches() {
+    }
+
+    // Строки, отвергнутые базой, получают null. Драйвер, который останавливает пакет на первой ошибке,
+    // возвращает укороченный массив счётчиков — хвост пакета тогда тоже считается отвергнутым.
+    public static Long[] executeReturningKeys(PreparedStatement ps, int rows) throws SQLException {
+        int[] updateCounts = execute(ps);
+
+        Long[] keys = new Long[rows];
+        try (ResultSet generatedKeys = ps.getGeneratedKeys()) {
+            for (int i = 0; i < rows && i < updateCounts.length; i++) {
+                if (updateCounts[i] != Statement.EXECUTE_FAILED && generatedKeys.next()) {
+                    keys[i] = generatedKeys.getLong(1);
+                }
+            }
+        }
+        return keys;
+    }
+
+    // Строка считается применённой, только если база изменила хотя бы одну запись.
+    public static boolean[] executeApplied(PreparedStatement ps, int rows) throws SQLException {
+        int[] updateCounts = execute(ps);
+
+        boolean[] applied = new boolean[rows];
+        for (int i = 0; i < rows && i < updateCounts.length; i++) {
+            applied[i] = updateCounts[i] > 0;
+        }
+        return applied;
+    }
+
+    private static int[] execute(PreparedStatement ps) throws SQLException {
+        try {
+            return ps.executeBatch();
+        } catch (BatchUpdateException e) {
+            return e.getUpdateCounts();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package ru.yandex.practicum.filmorate.util;
+
+public class JdbcRoundTrips {
+    private static final int ROUND_TRIPS = 0;
+    private static final int ROWS_READ = 1;
+    private static final int ROWS_WRITTEN = 2;
+    private static final int CONNECTION_WAIT_NANOS = 3;
+    private static final ThreadLocal<long[]> COUNTER = ThreadLocal.withInitial(() -> new long[4]);
+
+    public static long get() {
+        return COUNTER.get()[ROUND_TRIPS];
+    }
+
+    public static void increment() {
+        COUNTER.get()[ROUND_TRIPS]++;
+    }
+
+    public static long getRowsRead() {
+        return COUNTER.get()[ROWS_READ];
+    }
+
+    public static void addRowsRead(long rows) {
+        COUNTER.get()[ROWS_READ] += rows;
+    }
+
+    public static long getRowsWritten() {
+        return COUNTER.get()[ROWS_WRITTEN];
+    }
+
+    public static void addRowsWritten(long rows) {
+        COUNTER.get()[ROWS_WRITTEN] += rows;
+    }
+
+    public static long getConnectionWaitNanos() {
+        return COUNTER.get()[CONNECTION_WAIT_NANOS];
+    }
+
+    public static void addConnectionWaitNanos(long nanos) {
+        COUNTER.get()[CONNECTION_WAIT_NANOS] += nanos;
+    }
+}
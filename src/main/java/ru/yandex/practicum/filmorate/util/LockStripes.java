@@ -0,0 +1,29 @@
+package ru.yandex.practicum.filmorate.util;
+
+public class LockStripes {
+    private final Object[] locks;
+
+    public LockStripes(int stripes) {
+        locks = new Object[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public Object forId(Long id) {
+        return locks[index(id)];
+    }
+
+    // Две блокировки берутся в порядке номеров полос, поэтому встречные пары не держат друг друга.
+    public Object[] forIds(Long first, Long second) {
+        int firstIndex = index(first);
+        int secondIndex = index(second);
+        return firstIndex <= secondIndex
+                ? new Object[]{locks[firstIndex], locks[secondIndex]}
+                : new Object[]{locks[secondIndex], locks[firstIndex]};
+    }
+
+    private int index(Long id) {
+        return Math.floorMod(Long.hashCode(id), locks.length);
+    }
+}
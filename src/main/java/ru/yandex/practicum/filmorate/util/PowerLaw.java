@@ -0,0 +1,34 @@
+package ru.yandex.practicum.filmorate.util;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+// Дискретное распределение Ципфа на [0, size): вес ранга r пропорционален 1 / (r + 1)^exponent.
+// Ранги переставлены мультипликативным хешем, чтобы популярность не совпадала с порядком id.
+public class PowerLaw {
+    private static final long PERMUTATION_PRIME = 1_000_000_007L;
+
+    private final double[] cumulative;
+
+    public PowerLaw(int size, double exponent) {
+        cumulative = new double[size];
+        double total = 0;
+        for (int rank = 0; rank < size; rank++) {
+            total += Math.pow(rank + 1, -exponent);
+            cumulative[rank] = total;
+        }
+    }
+
+    public int sample(SplittableRandom random) {
+        double point = random.nextDouble() * cumulative[cumulative.length - 1];
+        int rank = Arrays.binarySearch(cumulative, point);
+        rank = rank < 0 ? -rank - 1 : rank;
+        return (int) (Math.min(rank, cumulative.length - 1) * PERMUTATION_PRIME % cumulative.length);
+    }
+
+    // Степень вершины из распределения Парето с хвостом exponent, обрезанная до [min, max].
+    public static int degree(SplittableRandom random, int min, int max, double exponent) {
+        double degree = min * Math.pow(1 - random.nextDouble(), -1 / (exponent - 1));
+        return (int) Math.min(max, Math.floor(degree));
+    }
+}
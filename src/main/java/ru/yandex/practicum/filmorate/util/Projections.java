@@ -0,0 +1,79 @@
+package ru.yandex.practicum.filmorate.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import ru.yandex.practicum.filmorate.exception.CustomExceptions;
+import ru.yandex.practicum.filmorate.model.ProjectedField;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// Разбор ?fields= и всё, что нужно хранилищам и контроллерам для частичной выдачи.
+// Идентификатор попадает в проекцию всегда: по нему работают курсоры и клиентские ссылки.
+public class Projections {
+    private Projections() {
+    }
+
+    public static <E extends Enum<E> & ProjectedField> Set<E> parse(Class<E> type, String fields) {
+        EnumSet<E> all = EnumSet.allOf(type);
+        if (fields == null || fields.isBlank()) {
+            return Collections.unmodifiableSet(all);
+        }
+
+        EnumSet<E> projection = EnumSet.of(type.getEnumConstants()[0]);
+        for (String name : fields.split(",")) {
+            String property = name.trim();
+            E field = all.stream()
+                    .filter(candidate -> candidate.getProperty().equalsIgnoreCase(property))
+                    .findFirst()
+                    .orElseThrow(() -> new CustomExceptions.UnknownFieldException(
+                            String.format("Неизвестное поле '%s', доступны: %s", property, properties(all))));
+            projection.add(field);
+        }
+        return Collections.unmodifiableSet(projection);
+    }
+
+    public static String columns(Set<? extends ProjectedField> fields) {
+        return fields.stream()
+                .map(ProjectedField::getColumn)
+                .filter(column -> column != null)
+                .collect(Collectors.joining(", "));
+    }
+
+    // Полная проекция сериализуется как раньше, без фильтра.
+    public static <E extends Enum<E> & ProjectedField> ObjectWriter writer(
+            ObjectMapper objectMapper, Class<?> type, Set<E> fields) {
+        ObjectWriter writer = objectMapper.writerFor(type);
+        return isFull(fields) ? writer : writer.with(filter(fields));
+    }
+
+    public static <E extends Enum<E> & ProjectedField> MappingJacksonValue wrap(Object body, Set<E> fields) {
+        MappingJacksonValue value = new MappingJacksonValue(body);
+        if (!isFull(fields)) {
+            value.setFilters(filter(fields));
+        }
+        return value;
+    }
+
+    private static <E extends Enum<E> & ProjectedField> boolean isFull(Set<E> fields) {
+        return fields.size() == fields.iterator().next().getDeclaringClass().getEnumConstants().length;
+    }
+
+    private static FilterProvider filter(Set<? extends ProjectedField> fields) {
+        return new SimpleFilterProvider().addFilter(
+                ProjectedField.FILTER, SimpleBeanPropertyFilter.filterOutAllExcept(properties(fields)));
+    }
+
+    private static Set<String> properties(Set<? extends ProjectedField> fields) {
+        return fields.stream()
+                .map(ProjectedField::getProperty)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+}
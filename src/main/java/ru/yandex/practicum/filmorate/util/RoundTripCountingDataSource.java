@@ -0,0 +1,115 @@
+package ru.yandex.practicum.filmorate.util;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+public class RoundTripCountingDataSource extends DelegatingDataSource implements Closeable {
+
+    public RoundTripCountingDataSource(DataSource targetDataSource) {
+        super(targetDataSource);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = super.getConnection();
+        JdbcRoundTrips.addConnectionWaitNanos(System.nanoTime() - start);
+        return countingConnection(connection);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = super.getConnection(username, password);
+        JdbcRoundTrips.addConnectionWaitNanos(System.nanoTime() - start);
+        return countingConnection(connection);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (getTargetDataSource() instanceof Closeable) {
+            ((Closeable) getTargetDataSource()).close();
+        }
+    }
+
+    private static Connection countingConnection(Connection target) {
+        return (Connection) Proxy.newProxyInstance(
+                RoundTripCountingDataSource.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(target, method, args);
+                    if (result instanceof CallableStatement) {
+                        return countingStatement((Statement) result, CallableStatement.class);
+                    }
+                    if (result instanceof PreparedStatement) {
+                        return countingStatement((Statement) result, PreparedStatement.class);
+                    }
+                    if (result instanceof Statement) {
+                        return countingStatement((Statement) result, Statement.class);
+                    }
+                    return result;
+                });
+    }
+
+    private static Object countingStatement(Statement target, Class<? extends Statement> type) {
+        return Proxy.newProxyInstance(
+                RoundTripCountingDataSource.class.getClassLoader(),
+                new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (!name.startsWith("execute") && !name.equals("getResultSet")) {
+                        return invoke(target, method, args);
+                    }
+
+                    if (name.startsWith("execute")) {
+                        JdbcRoundTrips.increment();
+                    }
+                    Object result = invoke(target, method, args);
+                    if (result instanceof ResultSet) {
+                        return countingResultSet((ResultSet) result);
+                    }
+                    if (result instanceof Integer && name.startsWith("executeUpdate")) {
+                        JdbcRoundTrips.addRowsWritten((Integer) result);
+                    } else if (result instanceof Long && name.startsWith("executeLargeUpdate")) {
+                        JdbcRoundTrips.addRowsWritten((Long) result);
+                    } else if (result instanceof int[]) {
+                        JdbcRoundTrips.addRowsWritten(Arrays.stream((int[]) result).filter(count -> count > 0).sum());
+                    }
+                    return result;
+                });
+    }
+
+    private static ResultSet countingResultSet(ResultSet target) {
+        return (ResultSet) Proxy.newProxyInstance(
+                RoundTripCountingDataSource.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(target, method, args);
+                    if (Boolean.TRUE.equals(result) && method.getName().equals("next")) {
+                        JdbcRoundTrips.addRowsRead(1);
+                    }
+                    return result;
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+}
@@ -41,11 +41,16 @@ CREATE TABLE IF NOT EXISTS film (
 	release_date date NULL,
 	duration int2 NULL,
 	rating_id int4 NULL,
+	like_count int4 NOT NULL DEFAULT 0,
 	CONSTRAINT film_pk PRIMARY KEY (id),
 	CONSTRAINT film_un UNIQUE (name, release_date),
 	CONSTRAINT film_rating_fk FOREIGN KEY (rating_id) REFERENCES ratings(id) ON DELETE SET NULL
 );
 
+-- Базы, созданные до появления счётчика, получают столбец с нулями; значения восстанавливает сверка счётчиков.
+ALTER TABLE film ADD COLUMN IF NOT EXISTS like_count int4 NOT NULL DEFAULT 0;
+CREATE INDEX IF NOT EXISTS film_like_count_idx ON film(like_count DESC, id);
+
 
 -- genres definition
 
@@ -74,6 +79,8 @@ CREATE TABLE IF NOT EXISTS likes (
 	CONSTRAINT likes_fk_1 FOREIGN KEY (user_id) REFERENCES "USER"(id) ON DELETE CASCADE
 );
 
+CREATE INDEX IF NOT EXISTS likes_user_idx ON likes(user_id);
+
 
 -- friends definition
 
@@ -90,6 +97,8 @@ CREATE TABLE IF NOT EXISTS friends (
 	CONSTRAINT friends_fk_1 FOREIGN KEY (friend_id) REFERENCES "USER"(id) ON DELETE CASCADE
 );
 
+CREATE INDEX IF NOT EXISTS friends_friend_idx ON friends(friend_id);
+
 
 -- films_genres definition
 
@@ -1,19 +1,103 @@
 package ru.yandex.practicum.filmorate;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.ServletWebRequest;
+import ru.yandex.practicum.filmorate.controller.FilmController;
+import ru.yandex.practicum.filmorate.controller.UserController;
+import ru.yandex.practicum.filmorate.dao.impl.CachedGenreDao;
+import ru.yandex.practicum.filmorate.exception.CustomExceptions;
+import ru.yandex.practicum.filmorate.execution.RequestExecutor;
+import ru.yandex.practicum.filmorate.index.EntityVersions;
+import ru.yandex.practicum.filmorate.index.FriendGraph;
+import ru.yandex.practicum.filmorate.index.PopularFilmsIndex;
+import ru.yandex.practicum.filmorate.index.SimilarFilmsIndex;
+import ru.yandex.practicum.filmorate.model.BatchItemError;
+import ru.yandex.practicum.filmorate.model.BatchResult;
+import ru.yandex.practicum.filmorate.model.CursorPage;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmField;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.IdSet;
+import ru.yandex.practicum.filmorate.model.LikeEvent;
+import ru.yandex.practicum.filmorate.model.LikeStreamResult;
+import ru.yandex.practicum.filmorate.model.Mpa;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserField;
+import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.service.GenreService;
+import ru.yandex.practicum.filmorate.service.LikeStreamService;
+import ru.yandex.practicum.filmorate.service.MpaService;
+import ru.yandex.practicum.filmorate.service.UserService;
+import ru.yandex.practicum.filmorate.storage.CachingFilmStorage;
+import ru.yandex.practicum.filmorate.storage.FilmDBStorage;
+import ru.yandex.practicum.filmorate.storage.InMemoryFilmStorage;
+import ru.yandex.practicum.filmorate.storage.InMemoryUserStorage;
+import ru.yandex.practicum.filmorate.storage.LikeCountReconciler;
 import ru.yandex.practicum.filmorate.storage.UserDBStorage;
+import ru.yandex.practicum.filmorate.storage.WriteBehindFilmStorage;
+import ru.yandex.practicum.filmorate.util.JdbcRoundTrips;
+import ru.yandex.practicum.filmorate.util.Projections;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 @SpringBootTest
 @AutoConfigureTestDatabase
 @RequiredArgsConstructor(onConstructor_ = @Autowired)
 class FilmorateApplicationTests {
     private final UserDBStorage userStorage;
+    private final FilmService filmService;
+    private final UserService userService;
+    private final GenreService genreService;
+    private final MpaService mpaService;
+    private final CachedGenreDao genreDao;
+    private final CachingFilmStorage filmCache;
+    private final InMemoryUserStorage inMemoryUserStorage;
+    private final InMemoryFilmStorage inMemoryFilmStorage;
+    private final SimilarFilmsIndex similarFilmsIndex;
+    private final PopularFilmsIndex popularFilmsIndex;
+    private final LikeStreamService likeStreamService;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final FilmDBStorage filmDBStorage;
+    private final LikeCountReconciler likeCountReconciler;
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityVersions entityVersions;
+    private final RequestExecutor requestExecutor;
+    private final FilmController filmController;
+    private final UserController userController;
+    private final ObjectMapper objectMapper;
 
     @Test
     public void testFindUserById() {
@@ -22,4 +106,864 @@ class FilmorateApplicationTests {
 
         Assertions.assertNull(user);
     }
+
+    @Test
+    public void testPopularFilmsFollowLikes() {
+        User first = userService.add(newUser("popular1"));
+        User second = userService.add(newUser("popular2"));
+        Film liked = filmService.add(newFilm("Popular liked"));
+        Film mostLiked = filmService.add(newFilm("Popular most liked"));
+
+        filmService.addLike(liked.getId(), first.getId());
+        filmService.addLike(mostLiked.getId(), first.getId());
+        filmService.addLike(mostLiked.getId(), second.getId());
+
+        Assertions.assertEquals(
+                List.of(mostLiked.getId(), liked.getId()),
+                popularAmong(liked.getId(), mostLiked.getId()));
+
+        filmService.deleteLike(mostLiked.getId(), first.getId());
+        filmService.deleteLike(mostLiked.getId(), second.getId());
+
+        Assertions.assertEquals(
+                List.of(liked.getId(), mostLiked.getId()),
+                popularAmong(liked.getId(), mostLiked.getId()));
+
+        // Удаление пользователя снимает его лайки и в индексе, и в кэше фильмов.
+        filmService.addLike(mostLiked.getId(), first.getId());
+        filmService.addLike(mostLiked.getId(), second.getId());
+        filmService.findById(mostLiked.getId());
+        userService.remove(second.getId());
+        Assertions.assertEquals(1, popularFilmsIndex.getLikes(mostLiked.getId()));
+        Assertions.assertEquals(Set.of(first.getId()), filmService.findById(mostLiked.getId()).getLikes());
+
+        // Удалённый фильм уходит из индекса, и топ на все фильмы не теряет позиций.
+        filmService.remove(liked.getId());
+        int total = filmService.findAll().size();
+        List<Film> popular = filmService.getPopular(String.valueOf(total));
+        Assertions.assertEquals(total, popular.size());
+        Assertions.assertTrue(popular.stream().noneMatch(film -> film.getId().equals(liked.getId())));
+        Assertions.assertEquals(total, filmService.getPopular(String.valueOf(Long.MAX_VALUE)).size());
+
+        filmCache.remove(mostLiked.getId());
+        userStorage.remove(first.getId());
+    }
+
+    @Test
+    public void testFindAllAssemblesLikesAndGenres() {
+        User user = userService.add(newUser("assembly"));
+        Film film = newFilm("Assembly");
+        film.setGenres(new LinkedHashSet<>(List.of(new Genre(2L, null), new Genre(1L, null))));
+        filmService.add(film);
+        filmService.addLike(film.getId(), user.getId());
+
+        Film found = filmService.findAll().stream()
+                .filter(x -> x.getId().equals(film.getId()))
+                .findFirst()
+                .orElseThrow();
+        Assertions.assertEquals(Set.of(user.getId()), found.getLikes());
+        Assertions.assertEquals(List.of(1L, 2L), found.getGenres().stream().map(Genre::getId).collect(Collectors.toList()));
+        Assertions.assertEquals("G", found.getMpa().getName());
+
+        User foundUser = userService.findAll().stream()
+                .filter(x -> x.getId().equals(user.getId()))
+                .findFirst()
+                .orElseThrow();
+        Assertions.assertTrue(foundUser.getFriends().isEmpty());
+
+        filmCache.remove(film.getId());
+        userStorage.remove(user.getId());
+    }
+
+    @Test
+    public void testFilmKeysetPages() {
+        User user = userService.add(newUser("pages"));
+        Film first = filmService.add(newFilm("Page 1"));
+        Film second = filmService.add(newFilm("Page 2"));
+        Film third = filmService.add(newFilm("Page 3"));
+        filmService.addLike(second.getId(), user.getId());
+
+        CursorPage<Film> page = filmService.findPage(first.getId() - 1, 2, FilmField.ALL);
+        Assertions.assertEquals(
+                List.of(first.getId(), second.getId()),
+                page.getItems().stream().map(Film::getId).collect(Collectors.toList()));
+        Assertions.assertEquals(second.getId(), page.getNextCursor());
+        Assertions.assertEquals(Set.of(user.getId()), page.getItems().get(1).getLikes());
+
+        page = filmService.findPage(page.getNextCursor(), 2, FilmField.ALL);
+        Assertions.assertEquals(
+                List.of(third.getId()),
+                page.getItems().stream().map(Film::getId).collect(Collectors.toList()));
+        Assertions.assertNull(page.getNextCursor());
+
+        filmCache.remove(first.getId());
+        filmCache.remove(second.getId());
+        filmCache.remove(third.getId());
+        userStorage.remove(user.getId());
+    }
+
+    @Test
+    public void testLikeIsSingleIdempotentStatement() {
+        User first = userService.add(newUser("delta1"));
+        User second = userService.add(newUser("delta2"));
+        Film film = filmService.add(newFilm("Delta"));
+        filmService.addLike(film.getId(), first.getId());
+
+        long roundTrips = JdbcRoundTrips.get();
+        filmService.addLike(film.getId(), second.getId());
+        filmService.addLike(film.getId(), second.getId());
+        Assertions.assertEquals(3, JdbcRoundTrips.get() - roundTrips);
+        Assertions.assertEquals(Set.of(first.getId(), second.getId()), filmService.findById(film.getId()).getLikes());
+
+        roundTrips = JdbcRoundTrips.get();
+        filmService.deleteLike(film.getId(), first.getId());
+        Assertions.assertEquals(2, JdbcRoundTrips.get() - roundTrips);
+        Assertions.assertEquals(Set.of(second.getId()), filmService.findById(film.getId()).getLikes());
+
+        Assertions.assertThrows(
+                CustomExceptions.UserDoesNotExistsException.class,
+                () -> filmService.addLike(film.getId(), -1L));
+        Assertions.assertThrows(
+                CustomExceptions.FilmDoesNotExistsException.class,
+                () -> filmService.deleteLike(-1L, second.getId()));
+
+        filmCache.remove(film.getId());
+        userStorage.remove(first.getId());
+        userStorage.remove(second.getId());
+    }
+
+    @Test
+    public void testFriendEdgesSurviveUserUpdate() {
+        User user = userService.add(newUser("edge1"));
+        User friend = userService.add(newUser("edge2"));
+
+        userService.addFriend(user.getId(), friend.getId());
+        userService.addFriend(user.getId(), friend.getId());
+        user.setName("Новое имя");
+        userService.update(user);
+
+        Assertions.assertEquals(Set.of(friend.getId()), userService.findById(user.getId()).getFriends());
+        Assertions.assertEquals("Новое имя", userService.findById(user.getId()).getName());
+
+        long roundTrips = JdbcRoundTrips.get();
+        userService.deleteFriend(user.getId(), friend.getId());
+        Assertions.assertEquals(2, JdbcRoundTrips.get() - roundTrips);
+        Assertions.assertTrue(userService.findById(user.getId()).getFriends().isEmpty());
+
+        Assertions.assertThrows(
+                CustomExceptions.UserDoesNotExistsException.class,
+                () -> userService.addFriend(user.getId(), -1L));
+
+        userStorage.remove(user.getId());
+        userStorage.remove(friend.getId());
+    }
+
+    @Test
+    public void testFriendListsAreFetchedInOneBatch() {
+        User user = userService.add(newUser("batch1"));
+        User other = userService.add(newUser("batch2"));
+        User common = userService.add(newUser("batch3"));
+        User own = userService.add(newUser("batch4"));
+        userService.addFriend(user.getId(), common.getId());
+        userService.addFriend(user.getId(), own.getId());
+        userService.addFriend(other.getId(), common.getId());
+
+        long roundTrips = JdbcRoundTrips.get();
+        List<User> friends = userService.getFriends(user.getId());
+        Assertions.assertEquals(3, JdbcRoundTrips.get() - roundTrips);
+        Assertions.assertEquals(
+                List.of(common.getId(), own.getId()),
+                friends.stream().map(User::getId).collect(Collectors.toList()));
+
+        Assertions.assertEquals(
+                List.of(common.getId()),
+                userService.getMutualFriends(user.getId(), other.getId()).stream()
+                        .map(User::getId)
+                        .collect(Collectors.toList()));
+        Assertions.assertThrows(
+                CustomExceptions.UserDoesNotExistsException.class,
+                () -> userService.getMutualFriends(user.getId(), -1L));
+
+        List.of(user, other, common, own).forEach(x -> userStorage.remove(x.getId()));
+    }
+
+    @Test
+    public void testDictionariesAreServedFromCache() {
+        long roundTrips = JdbcRoundTrips.get();
+        long misses = genreDao.getMisses();
+
+        Assertions.assertEquals(6, genreService.findAll().size());
+        Assertions.assertEquals("Драма", genreService.findById(2L).getName());
+        Assertions.assertEquals("PG-13", mpaService.findById(3L).getName());
+        Assertions.assertThrows(CustomExceptions.GenreDoesNotExistsException.class, () -> genreService.findById(99L));
+
+        Assertions.assertEquals(0, JdbcRoundTrips.get() - roundTrips);
+        Assertions.assertEquals(misses + 1, genreDao.getMisses());
+    }
+
+    @Test
+    public void testFilmCacheFollowsWrites() {
+        User user = userService.add(newUser("cached"));
+        Film film = filmService.add(newFilm("Cached"));
+        filmService.findById(film.getId());
+
+        long roundTrips = JdbcRoundTrips.get();
+        long hits = filmCache.getHits();
+        Assertions.assertEquals("Cached", filmService.findById(film.getId()).getName());
+        Assertions.assertEquals(0, JdbcRoundTrips.get() - roundTrips);
+        Assertions.assertEquals(hits + 1, filmCache.getHits());
+
+        filmService.addLike(film.getId(), user.getId());
+        Assertions.assertEquals(Set.of(user.getId()), filmService.findById(film.getId()).getLikes());
+
+        film.setName("Cached renamed");
+        filmService.update(film);
+        Assertions.assertEquals("Cached renamed", filmService.findById(film.getId()).getName());
+
+        // Вызывающий получает копию с замороженными лайками и не может испортить закэшированный фильм.
+        filmService.addLike(film.getId(), user.getId());
+        Film served = filmCache.findById(film.getId());
+        served.setName("Changed by caller");
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> served.getLikes().clear());
+        Assertions.assertEquals("Cached renamed", filmCache.findById(film.getId()).getName());
+        Assertions.assertEquals(Set.of(user.getId()), filmCache.findById(film.getId()).getLikes());
+
+        // Запись другого фильма не мешает закэшировать этот.
+        Film other = filmService.add(newFilm("Cached other"));
+        filmCache.invalidateAll();
+        filmCache.findById(film.getId());
+        filmService.update(other);
+        hits = filmCache.getHits();
+        filmCache.findById(film.getId());
+        Assertions.assertEquals(hits + 1, filmCache.getHits());
+
+        filmCache.remove(other.getId());
+        filmCache.remove(film.getId());
+        userStorage.remove(user.getId());
+    }
+
+    @Test
+    public void testInMemoryStorageUnderConcurrentWrites() {
+        List<User> users = IntStream.range(0, 1000).parallel()
+                .mapToObj(i -> inMemoryUserStorage.add(newUser("concurrent" + i)))
+                .collect(Collectors.toList());
+        Assertions.assertEquals(1000, users.stream().map(User::getId).distinct().count());
+
+        User hub = users.get(0);
+        users.parallelStream().skip(1).forEach(x -> inMemoryUserStorage.addFriendEdge(x.getId(), hub.getId()));
+        Assertions.assertEquals(999, inMemoryUserStorage.findFollowerIds(hub.getId()).size());
+
+        Film film = inMemoryFilmStorage.add(newFilm("Concurrent"));
+        Assertions.assertTrue(inMemoryFilmStorage.addLike(film.getId(), hub.getId()));
+
+        Film read = inMemoryFilmStorage.findById(film.getId());
+        read.getLikes().clear();
+        read.setName("Changed");
+        Assertions.assertEquals(Set.of(hub.getId()), inMemoryFilmStorage.findById(film.getId()).getLikes());
+        Assertions.assertEquals("Concurrent", inMemoryFilmStorage.findAll().stream()
+                .filter(x -> x.getId().equals(film.getId()))
+                .findFirst().orElseThrow().getName());
+
+        inMemoryUserStorage.remove(hub.getId());
+        Assertions.assertTrue(inMemoryUserStorage.findById(users.get(1).getId()).getFriends().isEmpty());
+        Assertions.assertThrows(
+                DataIntegrityViolationException.class,
+                () -> inMemoryUserStorage.addFriendEdge(users.get(1).getId(), hub.getId()));
+        Assertions.assertTrue(inMemoryFilmStorage.findById(film.getId()).getLikes().isEmpty());
+        Assertions.assertTrue(inMemoryFilmStorage.findLikedFilmIds(hub.getId()).isEmpty());
+        Assertions.assertThrows(
+                DataIntegrityViolationException.class,
+                () -> inMemoryFilmStorage.addLike(film.getId(), hub.getId()));
+        inMemoryFilmStorage.remove(film.getId());
+    }
+
+    @Test
+    public void testSuggestionsRankByMutualFriends() {
+        List<User> users = IntStream.range(0, 5)
+                .mapToObj(i -> userService.add(newUser("suggest" + i)))
+                .collect(Collectors.toList());
+        User user = users.get(0);
+        User first = users.get(1);
+        User second = users.get(2);
+        User close = users.get(3);
+        User distant = users.get(4);
+        userService.addFriend(user.getId(), first.getId());
+        userService.addFriend(user.getId(), second.getId());
+        userService.addFriend(close.getId(), first.getId());
+        userService.addFriend(close.getId(), second.getId());
+        userService.addFriend(distant.getId(), second.getId());
+
+        Assertions.assertEquals(
+                List.of(close.getId(), distant.getId()),
+                userService.getSuggestions(user.getId(), 10).stream().map(User::getId).collect(Collectors.toList()));
+
+        userService.addFriend(user.getId(), close.getId());
+        userService.deleteFriend(distant.getId(), second.getId());
+        Assertions.assertTrue(userService.getSuggestions(user.getId(), 10).isEmpty());
+
+        FriendGraph compacted = new FriendGraph(userStorage, 1000, 500, 1);
+        compacted.rebuild();
+        compacted.removeEdge(user.getId(), close.getId());
+        compacted.addEdge(distant.getId(), first.getId());
+        Assertions.assertEquals(List.of(close.getId()), compacted.suggest(user.getId(), 1));
+        Assertions.assertEquals(
+                List.of(close.getId(), distant.getId()),
+                compacted.suggest(user.getId(), 10));
+
+        // Уплотнение идёт в фоне и подменяет основу, не меняя ответов; изменения во время него ложатся в новый слой.
+        compacted.compactIfNeeded();
+        compacted.removeUser(distant.getId());
+        Assertions.assertEquals(List.of(close.getId()), compacted.suggest(user.getId(), 10));
+        compacted.compactIfNeeded();
+        Assertions.assertEquals(List.of(close.getId()), compacted.suggest(user.getId(), 10));
+        Assertions.assertThrows(
+                CustomExceptions.UserDoesNotExistsException.class,
+                () -> userService.getSuggestions(-1L, 10));
+
+        // Удаление пользователя доходит до графа, хотя связи в базе удаляет каскад.
+        userService.addFriend(distant.getId(), first.getId());
+        Assertions.assertEquals(
+                List.of(distant.getId()),
+                userService.getSuggestions(user.getId(), 10).stream().map(User::getId).collect(Collectors.toList()));
+        userService.remove(distant.getId());
+        Assertions.assertTrue(userService.getSuggestions(user.getId(), 10).isEmpty());
+
+        users.forEach(x -> userStorage.remove(x.getId()));
+    }
+
+    @Test
+    public void testSimilarFilmsFollowCoLikes() {
+        User first = userService.add(newUser("similar1"));
+        User second = userService.add(newUser("similar2"));
+        User third = userService.add(newUser("similar3"));
+        Film film = filmService.add(newFilm("Similar"));
+        Film sequel = filmService.add(newFilm("Similar sequel"));
+        Film remake = filmService.add(newFilm("Similar remake"));
+        filmService.addLike(film.getId(), first.getId());
+        filmService.addLike(sequel.getId(), first.getId());
+        filmService.addLike(film.getId(), second.getId());
+        filmService.addLike(sequel.getId(), second.getId());
+        filmService.addLike(remake.getId(), second.getId());
+
+        Assertions.assertEquals(List.of(sequel.getId(), remake.getId()), similarTo(film.getId()));
+
+        filmService.deleteLike(sequel.getId(), second.getId());
+        filmService.addLike(film.getId(), third.getId());
+        filmService.addLike(remake.getId(), third.getId());
+        Assertions.assertEquals(List.of(remake.getId(), sequel.getId()), similarTo(film.getId()));
+
+        similarFilmsIndex.rebuild();
+        Assertions.assertEquals(List.of(remake.getId(), sequel.getId()), similarTo(film.getId()));
+        Assertions.assertEquals(List.of(film.getId()), similarTo(sequel.getId()));
+
+        // PUT заменяет лайки целиком, индекс похожих получает разницу; удалённый фильм пропадает из соседей.
+        sequel.setLikes(IdSet.of(first.getId(), second.getId(), third.getId()));
+        filmService.update(sequel);
+        Assertions.assertEquals(List.of(sequel.getId(), remake.getId()), similarTo(film.getId()));
+        sequel.setLikes(IdSet.of(third.getId()));
+        filmService.update(sequel);
+        Assertions.assertEquals(List.of(remake.getId(), sequel.getId()), similarTo(film.getId()));
+        filmService.remove(remake.getId());
+        Assertions.assertEquals(List.of(sequel.getId()), similarFilmsIndex.getSimilar(film.getId(), 10));
+        Assertions.assertEquals(List.of(), similarFilmsIndex.getSimilar(remake.getId(), 10));
+
+        // У пользователя с лайками сверх лимита выборка зависит от пары (пользователь, фильм): после
+        // перестроения и новых лайков отмена всех его лайков снимает ровно то, что было насчитано.
+        List<Film> liked = IntStream.range(0, 8)
+                .mapToObj(i -> filmService.add(newFilm("Similar heavy " + i)))
+                .collect(Collectors.toList());
+        liked.forEach(x -> filmService.addLike(x.getId(), first.getId()));
+        SimilarFilmsIndex sampled = new SimilarFilmsIndex(filmCache, 100, 2);
+        sampled.rebuild();
+        Film extra = filmService.add(newFilm("Similar heavy extra"));
+        sampled.addLike(extra.getId(), first.getId());
+        liked.forEach(x -> sampled.removeLike(x.getId(), first.getId()));
+        sampled.removeLike(extra.getId(), first.getId());
+        Assertions.assertEquals(Map.of(), Stream.concat(liked.stream(), Stream.of(extra))
+                .filter(x -> !sampled.getSimilar(x.getId(), 100).isEmpty())
+                .collect(Collectors.toMap(Film::getId, x -> sampled.getSimilar(x.getId(), 100))));
+
+        liked.forEach(x -> filmCache.remove(x.getId()));
+        filmCache.remove(extra.getId());
+        List.of(film, sequel).forEach(x -> filmCache.remove(x.getId()));
+        List.of(first, second, third).forEach(x -> userStorage.remove(x.getId()));
+    }
+
+    @Test
+    public void testBatchImportReportsItemErrors() {
+        Film existing = filmService.add(newFilm("Batch existing"));
+        Film withGenres = newFilm("Batch 1");
+        withGenres.setGenres(new LinkedHashSet<>(List.of(new Genre(2L, null), new Genre(1L, null))));
+        Film unknownMpa = newFilm("Batch 2");
+        unknownMpa.setMpa(new Mpa(99L, null));
+
+        BatchResult<Film> films = filmService.addAll(
+                List.of(withGenres, newFilm("Batch 1"), unknownMpa, newFilm("Batch existing"), newFilm("Batch 3")));
+        Assertions.assertEquals(
+                List.of("Batch 1", "Batch 3"),
+                films.getCreated().stream().map(Film::getName).collect(Collectors.toList()));
+        Assertions.assertEquals(
+                List.of(1, 2, 3),
+                films.getErrors().stream().map(BatchItemError::getIndex).collect(Collectors.toList()));
+        Assertions.assertEquals(
+                List.of(1L, 2L),
+                filmService.findById(withGenres.getId()).getGenres().stream()
+                        .map(Genre::getId)
+                        .collect(Collectors.toList()));
+
+        User existingUser = userService.add(newUser("batchuser0"));
+        BatchResult<User> users = userService.addAll(
+                List.of(newUser("batchuser1"), newUser("batchuser0"), newUser("batchuser1"), newUser("batchuser2")));
+        Assertions.assertEquals(2, users.getCreated().size());
+        Assertions.assertTrue(users.getCreated().get(0).getId() < users.getCreated().get(1).getId());
+        Assertions.assertEquals(
+                List.of(1, 2),
+                users.getErrors().stream().map(BatchItemError::getIndex).collect(Collectors.toList()));
+
+        filmCache.remove(existing.getId());
+        films.getCreated().forEach(x -> filmCache.remove(x.getId()));
+        userStorage.remove(existingUser.getId());
+        users.getCreated().forEach(x -> userStorage.remove(x.getId()));
+    }
+
+    // Время обоих путей меряет ImportBenchmark в модуле benchmarks; здесь проверяется число запросов.
+    @Test
+    public void testBatchImportAgainstSingleInserts() {
+        List<Film> single = IntStream.range(0, 100)
+                .mapToObj(i -> newFilmWithGenre("Single " + i))
+                .collect(Collectors.toList());
+        List<Film> batch = IntStream.range(0, 100)
+                .mapToObj(i -> newFilmWithGenre("Batched " + i))
+                .collect(Collectors.toList());
+
+        long roundTrips = JdbcRoundTrips.get();
+        single.forEach(filmService::add);
+        Assertions.assertEquals(200, JdbcRoundTrips.get() - roundTrips);
+
+        roundTrips = JdbcRoundTrips.get();
+        BatchResult<Film> result = filmService.addAll(batch);
+        Assertions.assertEquals(2, JdbcRoundTrips.get() - roundTrips);
+        Assertions.assertEquals(100, result.getCreated().size());
+        Assertions.assertEquals(
+                Set.of(1L),
+                filmService.findById(result.getCreated().get(99).getId()).getGenres().stream()
+                        .map(Genre::getId)
+                        .collect(Collectors.toSet()));
+
+        // Список длиннее пакета IN читается по частям и не теряет фильмов на границе пакетов.
+        List<Long> ids = Stream.concat(
+                        LongStream.rangeClosed(1, 400).map(i -> -i).boxed(),
+                        Stream.concat(single.stream(), batch.stream()).map(Film::getId))
+                .collect(Collectors.toList());
+        Assertions.assertEquals(200, filmDBStorage.findByIds(ids).size());
+        Assertions.assertEquals(200, filmDBStorage.findSummaries(ids, null).size());
+        Assertions.assertEquals(200, filmDBStorage.findExistingIds(ids).size());
+
+        single.forEach(x -> filmCache.remove(x.getId()));
+        batch.forEach(x -> filmCache.remove(x.getId()));
+    }
+
+    @Test
+    public void testLikeStreamReportsRejectedEvents() throws IOException {
+        User user = userService.add(newUser("stream"));
+        Film film = filmService.add(newFilm("Stream"));
+        String events = String.join("\n",
+                String.format("{\"filmId\": %d, \"userId\": %d, \"op\": \"like\"}", film.getId(), user.getId()),
+                String.format("{\"filmId\": %d, \"userId\": %d, \"op\": \"like\"}", film.getId(), user.getId()),
+                String.format("{\"filmId\": %d, \"userId\": %d, \"op\": \"like\"}", -1, user.getId()),
+                String.format("{\"filmId\": %d, \"userId\": %d, \"op\": \"like\"}", film.getId(), -1),
+                String.format("{\"filmId\": %d, \"userId\": %d, \"op\": \"dislike\"}", film.getId(), user.getId()),
+                String.format("{\"filmId\": %d, \"userId\": %d, \"op\": \"unlike\"}", film.getId(), user.getId()),
+                String.format("{\"filmId\": \"abc\", \"userId\": %d, \"op\": \"like\"}", user.getId()),
+                String.format("{\"filmId\": {\"id\": [1]}, \"userId\": %d, \"op\": \"like\"}", user.getId()),
+                String.format("{\"filmId\": %d, \"userId\": %d, \"op\": \"like\"}", film.getId(), user.getId()),
+                "{\"filmId\": ");
+
+        LikeStreamResult result = likeStreamService.ingest(
+                new ByteArrayInputStream(events.getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertEquals(1, result.getBatches().size());
+        Assertions.assertEquals(3, result.getApplied());
+        Assertions.assertEquals(6, result.getRejected());
+        Assertions.assertEquals(1, result.getBatches().get(0).getDuplicate());
+        Assertions.assertEquals(1, result.getBatches().get(0).getUnknownFilm());
+        Assertions.assertEquals(1, result.getBatches().get(0).getUnknownUser());
+        Assertions.assertEquals(3, result.getBatches().get(0).getInvalid());
+        Assertions.assertNotNull(result.getError());
+        Assertions.assertEquals(Set.of(user.getId()), filmService.findById(film.getId()).getLikes());
+        Assertions.assertEquals(List.of(film.getId()), popularAmong(film.getId()));
+
+        filmCache.remove(film.getId());
+        userStorage.remove(user.getId());
+    }
+
+    @Test
+    public void testWriteBehindLikesAreReadBeforeFlush() {
+        User first = userService.add(newUser("buffered1"));
+        User second = userService.add(newUser("buffered2"));
+        Film film = filmService.add(newFilm("Buffered"));
+        WriteBehindFilmStorage buffer = new WriteBehindFilmStorage(filmCache, userStorage, transactionTemplate, 100, 10);
+        List<LikeEvent> written = new ArrayList<>();
+        Assertions.assertTrue(buffer.addLikesListener(written::addAll));
+
+        // Проверенные пользователь и фильм запоминаются: повторная запись в базу не ходит.
+        Assertions.assertTrue(buffer.addLike(film.getId(), first.getId()));
+        long roundTrips = JdbcRoundTrips.get();
+        Assertions.assertFalse(buffer.addLike(film.getId(), first.getId()));
+        Assertions.assertEquals(0, JdbcRoundTrips.get() - roundTrips);
+
+        // Буфер не знает, был ли лайк в базе, поэтому лайк и его отмена оставляют в нём итоговую отмену.
+        Assertions.assertTrue(buffer.addLike(film.getId(), second.getId()));
+        Assertions.assertTrue(buffer.removeLike(film.getId(), second.getId()));
+        Assertions.assertEquals(2, buffer.getPendingCount());
+        Assertions.assertEquals(Set.of(first.getId()), buffer.findById(film.getId()).getLikes());
+        Assertions.assertTrue(filmCache.findById(film.getId()).getLikes().isEmpty());
+
+        // Популярные накладывают буфер на ответ базы и не сбрасывают его.
+        Assertions.assertEquals(
+                Set.of(first.getId()),
+                buffer.findPopular(Integer.MAX_VALUE).stream()
+                        .filter(x -> x.getId().equals(film.getId()))
+                        .findFirst()
+                        .orElseThrow()
+                        .getLikes());
+        FilmSummary summary = buffer.findSummaries(List.of(film.getId()), first.getId()).get(0);
+        Assertions.assertEquals(1, summary.getLikeCount());
+        Assertions.assertTrue(summary.getViewerLiked());
+        Assertions.assertEquals(List.of(first.getId()), buffer.findLikes(film.getId(), 0L, 10));
+        Assertions.assertTrue(buffer.findLikes(film.getId(), first.getId(), 10).isEmpty());
+        Assertions.assertEquals(2, buffer.getPendingCount());
+        Assertions.assertThrows(
+                DataIntegrityViolationException.class, () -> buffer.addLike(film.getId(), -1L));
+        Assertions.assertThrows(
+                DataIntegrityViolationException.class, () -> buffer.addLike(-1L, first.getId()));
+
+        // Лайк пользователя, удалённого до сброса, отбрасывается и не ломает пакет.
+        User removed = userService.add(newUser("buffered3"));
+        Assertions.assertTrue(buffer.addLike(film.getId(), removed.getId()));
+        userStorage.remove(removed.getId());
+
+        buffer.flush();
+        Assertions.assertEquals(0, buffer.getPendingCount());
+        Assertions.assertEquals(0, buffer.getFlushFailures());
+        Assertions.assertEquals(2, buffer.getFlushedEvents());
+        Assertions.assertEquals(List.of(new LikeEvent(film.getId(), first.getId(), LikeEvent.Op.LIKE)), written);
+        Assertions.assertEquals(Set.of(first.getId()), filmCache.findById(film.getId()).getLikes());
+        Assertions.assertEquals(Set.of(first.getId()), buffer.findById(film.getId()).getLikes());
+
+        filmCache.remove(film.getId());
+        userStorage.remove(first.getId());
+        userStorage.remove(second.getId());
+    }
+
+    @Test
+    public void testStorageMetricsFlagNPlusOne() {
+        User user = userService.add(newUser("metrics"));
+        userService.findById(user.getId());
+        Assertions.assertTrue(meterRegistry.get("filmorate.storage.latency")
+                .tag("storage", "UserDBStorage")
+                .tag("method", "findById")
+                .timer()
+                .count() > 0);
+        Assertions.assertTrue(meterRegistry.get("filmorate.storage.rows.read")
+                .tag("storage", "UserDBStorage")
+                .tag("method", "findById")
+                .summary()
+                .totalAmount() > 0);
+
+        // Популярные фильмы читаются одним пакетным запросом, а не findById на каждый.
+        List<Film> films = IntStream.range(0, 11)
+                .mapToObj(i -> filmService.add(newFilm("Metrics " + i)))
+                .collect(Collectors.toList());
+        filmCache.invalidateAll();
+        Timer batchTimer = meterRegistry.find("filmorate.storage.latency")
+                .tag("storage", "FilmDBStorage")
+                .tag("method", "findByIds")
+                .timer();
+        long batchLoads = batchTimer == null ? 0 : batchTimer.count();
+        filmService.getPopular(String.valueOf(Integer.MAX_VALUE));
+        Assertions.assertEquals(batchLoads + 1, meterRegistry.get("filmorate.storage.latency")
+                .tag("storage", "FilmDBStorage")
+                .tag("method", "findByIds")
+                .timer()
+                .count());
+        Assertions.assertNull(meterRegistry.find("filmorate.service.n_plus_one")
+                .tag("service", "FilmService")
+                .tag("method", "getPopular")
+                .counter());
+
+        // Поиск фильма по id на каждый фильм потока — настоящий N+1.
+        long[] lookups = {0};
+        filmService.forEachFilm(FilmField.ALL, film -> {
+            if (lookups[0]++ < 11) {
+                filmDBStorage.findById(film.getId());
+            }
+        });
+        Counter nPlusOne = meterRegistry.find("filmorate.service.n_plus_one")
+                .tag("service", "FilmService")
+                .tag("method", "forEachFilm")
+                .tag("storage_method", "FilmDBStorage.findById")
+                .counter();
+        Assertions.assertNotNull(nPlusOne);
+        Assertions.assertTrue(nPlusOne.count() >= 1);
+
+        // Импорт пишет пакетами по filmorate.batch.chunk-size: 11 пакетов — не N+1.
+        List<User> imported = IntStream.range(0, 11 * 500)
+                .mapToObj(i -> newUser("nplusone" + i))
+                .collect(Collectors.toList());
+        userService.addAll(imported);
+        Assertions.assertNull(meterRegistry.find("filmorate.service.n_plus_one")
+                .tag("service", "UserService")
+                .tag("method", "addAll")
+                .counter());
+
+        jdbcTemplate.update("delete from \"USER\" where login like 'nplusone%'");
+        films.forEach(x -> filmCache.remove(x.getId()));
+        userStorage.remove(user.getId());
+    }
+
+    @Test
+    public void testLikeCountFollowsLikesAndIsReconciled() {
+        User first = userService.add(newUser("counter1"));
+        User second = userService.add(newUser("counter2"));
+        Film liked = filmService.add(newFilm("Counter liked"));
+        Film mostLiked = filmService.add(newFilm("Counter most liked"));
+
+        filmService.addLike(liked.getId(), first.getId());
+        filmService.addLike(mostLiked.getId(), first.getId());
+        filmService.addLike(mostLiked.getId(), second.getId());
+        filmService.addLike(mostLiked.getId(), second.getId());
+        Assertions.assertEquals(2, likeCount(mostLiked.getId()));
+        Assertions.assertEquals(
+                List.of(mostLiked.getId(), liked.getId()),
+                filmDBStorage.findPopular(Integer.MAX_VALUE).stream()
+                        .map(Film::getId)
+                        .filter(id -> id.equals(liked.getId()) || id.equals(mostLiked.getId()))
+                        .collect(Collectors.toList()));
+        Assertions.assertEquals(
+                Set.of(first.getId(), second.getId()),
+                filmDBStorage.findPopular(Integer.MAX_VALUE).stream()
+                        .filter(film -> film.getId().equals(mostLiked.getId()))
+                        .findFirst()
+                        .orElseThrow()
+                        .getLikes());
+
+        userStorage.remove(second.getId());
+        Assertions.assertEquals(1, likeCount(mostLiked.getId()));
+
+        jdbcTemplate.update("update film set like_count = 42 where id = ?", liked.getId());
+        Assertions.assertTrue(likeCountReconciler.reconcile() >= 1);
+        Assertions.assertEquals(1, likeCount(liked.getId()));
+        Assertions.assertEquals(0, likeCountReconciler.reconcile());
+
+        filmCache.remove(liked.getId());
+        filmCache.remove(mostLiked.getId());
+        userStorage.remove(first.getId());
+    }
+
+    @Test
+    public void testVersionTagsAnswerNotModified() {
+        User user = userService.add(newUser("etag1"));
+        User friend = userService.add(newUser("etag2"));
+        Film film = filmService.add(newFilm("Etag"));
+        Film other = filmService.add(newFilm("Etag other"));
+        String filmTag = entityVersions.filmTag(film.getId());
+        String otherTag = entityVersions.filmTag(other.getId());
+        String filmsTag = entityVersions.filmsTag();
+        String userTag = entityVersions.userTag(user.getId());
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/films/" + film.getId());
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, filmTag);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        Assertions.assertNull(requestExecutor.submitIfModified(
+                new ServletWebRequest(request, response),
+                filmTag,
+                RequestExecutor.Workload.READ,
+                () -> Assertions.fail("304 не должен обращаться к хранилищу")));
+        Assertions.assertEquals(HttpStatus.NOT_MODIFIED.value(), response.getStatus());
+        Assertions.assertEquals(filmTag, response.getHeader(HttpHeaders.ETAG));
+
+        filmService.addLike(film.getId(), user.getId());
+        Assertions.assertNotEquals(filmTag, entityVersions.filmTag(film.getId()));
+        Assertions.assertNotEquals(filmsTag, entityVersions.filmsTag());
+        Assertions.assertEquals(otherTag, entityVersions.filmTag(other.getId()));
+
+        MockHttpServletRequest stale = new MockHttpServletRequest("GET", "/films/" + film.getId());
+        stale.addHeader(HttpHeaders.IF_NONE_MATCH, filmTag);
+        Assertions.assertEquals(
+                Set.of(user.getId()),
+                requestExecutor.submitIfModified(
+                        new ServletWebRequest(stale, new MockHttpServletResponse()),
+                        entityVersions.filmTag(film.getId()),
+                        RequestExecutor.Workload.READ,
+                        () -> filmService.findById(film.getId())).join().getLikes());
+
+        userService.addFriend(user.getId(), friend.getId());
+        Assertions.assertNotEquals(userTag, entityVersions.userTag(user.getId()));
+
+        // Запись удалённой сущности выбрасывается, но её тег не совпадает ни с одним выданным раньше.
+        Set<String> filmTags = Set.of(filmTag, entityVersions.filmTag(film.getId()));
+        String friendTag = entityVersions.userTag(friend.getId());
+        filmService.remove(film.getId());
+        userService.remove(friend.getId());
+        Assertions.assertFalse(filmTags.contains(entityVersions.filmTag(film.getId())));
+        Assertions.assertNotEquals(friendTag, entityVersions.userTag(friend.getId()));
+        Assertions.assertEquals(otherTag, entityVersions.filmTag(other.getId()));
+
+        filmCache.remove(other.getId());
+        userStorage.remove(user.getId());
+    }
+
+    @Test
+    public void testStreamedListingKeepsJsonShape() throws IOException {
+        User user = userService.add(newUser("stream1"));
+        Film film = filmService.add(newFilmWithGenre("Streamed"));
+        filmService.addLike(film.getId(), user.getId());
+
+        ByteArrayOutputStream films = new ByteArrayOutputStream();
+        filmController.findAll(null, new ServletWebRequest(new MockHttpServletRequest(), new MockHttpServletResponse()))
+                .getBody()
+                .writeTo(films);
+        Assertions.assertEquals(
+                objectMapper.writeValueAsString(filmService.findAll()),
+                films.toString(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream users = new ByteArrayOutputStream();
+        userController.findAll(null, new ServletWebRequest(new MockHttpServletRequest(), new MockHttpServletResponse()))
+                .getBody()
+                .writeTo(users);
+        Assertions.assertEquals(
+                objectMapper.writeValueAsString(userService.findAll()),
+                users.toString(StandardCharsets.UTF_8));
+
+        filmCache.remove(film.getId());
+        userStorage.remove(user.getId());
+    }
+
+    @Test
+    public void testProjectionSkipsUnrequestedChildTables() throws IOException {
+        User user = userService.add(newUser("projection1"));
+        Film film = filmService.add(newFilmWithGenre("Projected"));
+        filmService.addLike(film.getId(), user.getId());
+
+        Set<FilmField> filmFields = Projections.parse(FilmField.class, "name, mpa");
+        long roundTrips = JdbcRoundTrips.get();
+        Film projected = filmService.findPage(film.getId() - 1, 1, filmFields).getItems().get(0);
+        Assertions.assertEquals(1, JdbcRoundTrips.get() - roundTrips);
+        Assertions.assertEquals("Projected", projected.getName());
+        Assertions.assertNotNull(projected.getMpa());
+        Assertions.assertNull(projected.getLikes());
+        Assertions.assertNull(projected.getGenres());
+
+        roundTrips = JdbcRoundTrips.get();
+        Assertions.assertEquals(
+                Set.of(user.getId()),
+                filmService.findPage(film.getId() - 1, 1, FilmField.ALL).getItems().get(0).getLikes());
+        Assertions.assertEquals(3, JdbcRoundTrips.get() - roundTrips);
+
+        ByteArrayOutputStream films = new ByteArrayOutputStream();
+        ServletWebRequest request = new ServletWebRequest(new MockHttpServletRequest(), new MockHttpServletResponse());
+        filmController.findAll("name,mpa", request)
+                .getBody()
+                .writeTo(films);
+        for (JsonNode node : objectMapper.readTree(films.toByteArray())) {
+            Set<String> names = new HashSet<>();
+            node.fieldNames().forEachRemaining(names::add);
+            Assertions.assertEquals(Set.of("id", "name", "mpa"), names);
+        }
+
+        User projectedUser = userService.findPage(user.getId() - 1, 1, Set.of(UserField.ID, UserField.LOGIN))
+                .getItems()
+                .get(0);
+        Assertions.assertEquals("projection1", projectedUser.getLogin());
+        Assertions.assertNull(projectedUser.getEmail());
+        Assertions.assertNull(projectedUser.getFriends());
+
+        Assertions.assertThrows(
+                CustomExceptions.UnknownFieldException.class,
+                () -> Projections.parse(FilmField.class, "rating"));
+
+        filmCache.remove(film.getId());
+        userStorage.remove(user.getId());
+    }
+
+    @Test
+    public void testSummaryCountsLikesWithoutLoadingThem() throws IOException {
+        User first = userService.add(newUser("summary1"));
+        User second = userService.add(newUser("summary2"));
+        Film film = filmService.add(newFilmWithGenre("Summarized"));
+        filmService.addLike(film.getId(), first.getId());
+        filmService.addLike(film.getId(), second.getId());
+
+        long roundTrips = JdbcRoundTrips.get();
+        FilmSummary summary = filmService.findSummaryById(film.getId(), first.getId());
+        Assertions.assertEquals(2, JdbcRoundTrips.get() - roundTrips);
+        Assertions.assertEquals(2, summary.getLikeCount());
+        Assertions.assertTrue(summary.getViewerLiked());
+        Assertions.assertEquals(1, summary.getGenres().size());
+
+        FilmSummary anonymous = filmService.findSummaryById(film.getId(), null);
+        Assertions.assertNull(anonymous.getViewerLiked());
+        JsonNode json = objectMapper.readTree(objectMapper.writeValueAsString(anonymous));
+        Assertions.assertEquals(2, json.get("likeCount").asLong());
+        Assertions.assertFalse(json.has("likes"));
+        Assertions.assertFalse(json.has("viewerLiked"));
+
+        CursorPage<Long> likes = filmService.findLikes(film.getId(), 0L, 1);
+        Assertions.assertEquals(List.of(first.getId()), likes.getItems());
+        likes = filmService.findLikes(film.getId(), likes.getNextCursor(), 1);
+        Assertions.assertEquals(List.of(second.getId()), likes.getItems());
+        Assertions.assertTrue(filmService.findLikes(film.getId(), second.getId(), 1).getItems().isEmpty());
+
+        List<Film> popular = filmService.getPopular("5");
+        List<FilmSummary> popularSummaries = filmService.getPopularSummaries("5", second.getId());
+        Assertions.assertEquals(
+                popular.stream().map(Film::getId).collect(Collectors.toList()),
+                popularSummaries.stream().map(FilmSummary::getId).collect(Collectors.toList()));
+        for (int i = 0; i < popular.size(); i++) {
+            Assertions.assertEquals(popular.get(i).getLikes().size(), popularSummaries.get(i).getLikeCount());
+            Assertions.assertEquals(
+                    popular.get(i).getLikes().contains(second.getId()), popularSummaries.get(i).getViewerLiked());
+        }
+
+        Assertions.assertThrows(
+                CustomExceptions.FilmDoesNotExistsException.class,
+                () -> filmService.findSummaryById(-1L, null));
+        Assertions.assertThrows(
+                CustomExceptions.FilmDoesNotExistsException.class,
+                () -> filmService.findLikes(-1L, 0L, 10));
+
+        filmCache.remove(film.getId());
+        userStorage.remove(first.getId());
+        userStorage.remove(second.getId());
+    }
+
+    private long likeCount(Long filmId) {
+        return jdbcTemplate.queryForObject("select like_count from film where id = ?", Long.class, filmId);
+    }
+
+    private Film newFilmWithGenre(String name) {
+        Film film = newFilm(name);
+        film.setGenres(new LinkedHashSet<>(List.of(new Genre(1L, null))));
+        return film;
+    }
+
+    private List<Long> similarTo(Long filmId) {
+        return filmService.getSimilar(filmId, 10).stream().map(Film::getId).collect(Collectors.toList());
+    }
+
+    private List<Long> popularAmong(Long... filmIds) {
+        List<Long> ids = List.of(filmIds);
+        return filmService.getPopular(String.valueOf(Integer.MAX_VALUE)).stream()
+                .map(Film::getId)
+                .filter(ids::contains)
+                .collect(Collectors.toList());
+    }
+
+    private User newUser(String login) {
+        return new User(null, login + "@mail.ru", login, null, LocalDate.of(1990, 1, 1), null);
+    }
+
+    private Film newFilm(String name) {
+        return new Film(null, name, "Описание", LocalDate.of(2000, 1, 1), 100, null, new Mpa(1L, null), null);
+    }
 }
@@ -0,0 +1,45 @@
+package ru.yandex.practicum.filmorate.execution;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+class BulkheadTest {
+
+    @Test
+    public void testRejectsWhenQueueIsFull() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead("test", Executors.newFixedThreadPool(1), 1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Integer> running = bulkhead.submit(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return 1;
+        });
+        started.await();
+        CompletableFuture<Integer> waiting = bulkhead.submit(() -> 2);
+
+        Assertions.assertEquals(1, bulkhead.getActive());
+        Assertions.assertEquals(1, bulkhead.getQueued());
+        Assertions.assertThrows(RejectedExecutionException.class, () -> bulkhead.submit(() -> 3));
+        Assertions.assertEquals(1, bulkhead.getRejected());
+
+        release.countDown();
+        Assertions.assertEquals(1, running.join());
+        Assertions.assertEquals(2, waiting.join());
+        Assertions.assertEquals(2, bulkhead.getCompleted());
+        Assertions.assertEquals(0, bulkhead.getQueued());
+        Assertions.assertEquals(0, bulkhead.getActive());
+
+        bulkhead.shutdown(1000);
+    }
+}
@@ -0,0 +1,112 @@
+package ru.yandex.practicum.filmorate.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.InvalidNullException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+class IdSetTest {
+
+    @Test
+    public void testKeepsIdsSortedAndUnique() {
+        IdSet set = new IdSet(List.of(5L, 1L, 3L, 1L));
+        set.add(4L);
+        set.add(9L);
+        set.add(3L);
+        set.remove(5L);
+
+        Assertions.assertEquals(List.of(1L, 3L, 4L, 9L), List.copyOf(set));
+        Assertions.assertTrue(set.contains(4L));
+        Assertions.assertFalse(set.contains(5L));
+        Assertions.assertEquals(Set.of(1L, 3L, 4L, 9L), set);
+    }
+
+    @Test
+    public void testRandomEditsAcrossChunksMatchTreeSet() {
+        Random random = new Random(7);
+        IdSet set = new IdSet();
+        TreeSet<Long> expected = new TreeSet<>();
+        for (int i = 0; i < 200_000; i++) {
+            long id = random.nextInt(50_000);
+            if (random.nextInt(3) == 0) {
+                Assertions.assertEquals(expected.remove(id), set.remove(id));
+            } else {
+                Assertions.assertEquals(expected.add(id), set.add(id));
+            }
+        }
+        Assertions.assertEquals(List.copyOf(expected), List.copyOf(set));
+
+        Iterator<Long> iterator = set.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() % 2 == 0) {
+                iterator.remove();
+            }
+        }
+        expected.removeIf(id -> id % 2 == 0);
+        Assertions.assertEquals(List.copyOf(expected), List.copyOf(set));
+        Assertions.assertEquals(expected.size(), set.size());
+    }
+
+    @Test
+    public void testCopiesShareChunksUntilWritten() {
+        IdSet original = new IdSet();
+        for (long id = 0; id < 5_000; id++) {
+            original.add(id * 2);
+        }
+        IdSet copy = new IdSet(original);
+        copy.add(3L);
+        copy.remove(4L);
+        original.add(5L);
+
+        Assertions.assertTrue(copy.contains(3L));
+        Assertions.assertFalse(copy.contains(4L));
+        Assertions.assertFalse(copy.contains(5L));
+        Assertions.assertFalse(original.contains(3L));
+        Assertions.assertTrue(original.contains(4L));
+        Assertions.assertEquals(5_001, original.size());
+        Assertions.assertEquals(5_000, copy.size());
+
+        IdSet frozen = new IdSet(original).freeze();
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> frozen.add(7L));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> frozen.remove(4L));
+        IdSet thawed = new IdSet(frozen);
+        thawed.add(7L);
+        Assertions.assertFalse(frozen.contains(7L));
+    }
+
+    @Test
+    public void testUnionAndIntersection() {
+        IdSet left = IdSet.of(1, 2, 3, 7);
+        IdSet right = IdSet.of(2, 3, 4);
+
+        Assertions.assertEquals(List.of(1L, 2L, 3L, 4L, 7L), List.copyOf(left.union(right)));
+        Assertions.assertEquals(List.of(2L, 3L), List.copyOf(left.intersection(right)));
+    }
+
+    @Test
+    public void testJsonShapeIsUnchanged() throws Exception {
+        ObjectMapper mapper = new ObjectMapper().findAndRegisterModules();
+        Film film = new Film(1L, "Film", "Описание", LocalDate.of(2000, 1, 1), 100, IdSet.of(3, 1), null, null);
+
+        String json = mapper.writeValueAsString(film);
+        Assertions.assertTrue(json.contains("\"likes\":[1,3]"));
+
+        Film parsed = mapper.readValue(json, Film.class);
+        Assertions.assertTrue(parsed.getLikes() instanceof IdSet);
+        Assertions.assertEquals(Set.of(1L, 3L), parsed.getLikes());
+
+        Assertions.assertThrows(
+                InvalidNullException.class,
+                () -> mapper.readValue(json.replace("\"likes\":[1,3]", "\"likes\":[null]"), Film.class));
+        Assertions.assertThrows(
+                InvalidNullException.class,
+                () -> mapper.readValue("{\"email\":\"a@b.ru\",\"login\":\"a\",\"friends\":[1,null]}", User.class));
+    }
+}
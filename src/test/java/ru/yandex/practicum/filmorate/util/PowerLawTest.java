@@ -0,0 +1,38 @@
+package ru.yandex.practicum.filmorate.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+class PowerLawTest {
+
+    @Test
+    public void testSamplesAreDeterministicAndSkewed() {
+        PowerLaw powerLaw = new PowerLaw(1000, 1.0);
+        int[] counts = new int[1000];
+        SplittableRandom random = new SplittableRandom(42);
+        int[] samples = IntStream.range(0, 10_000).map(i -> powerLaw.sample(random)).toArray();
+        SplittableRandom sameSeed = new SplittableRandom(42);
+
+        for (int sample : samples) {
+            Assertions.assertEquals(sample, powerLaw.sample(sameSeed));
+            Assertions.assertTrue(sample >= 0 && sample < 1000);
+            counts[sample]++;
+        }
+
+        // Ранг 0 переставляется в значение 0 и при exponent=1 забирает около 13% выборки.
+        Assertions.assertTrue(counts[0] > 1000);
+        Assertions.assertTrue(IntStream.of(counts).filter(count -> count == 0).count() > 50);
+    }
+
+    @Test
+    public void testDegreeStaysWithinBounds() {
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < 10_000; i++) {
+            int degree = PowerLaw.degree(random, 2, 50, 2.1);
+            Assertions.assertTrue(degree >= 2 && degree <= 50);
+        }
+    }
+}